@@ -11,6 +11,7 @@ import android.content.Context;
 import android.os.Build;
 
 import org.citra.citra_emu.model.GameDatabase;
+import org.citra.citra_emu.model.LibraryIndexWorker;
 import org.citra.citra_emu.utils.DirectoryInitialization;
 import org.citra.citra_emu.utils.PermissionsHandler;
 
@@ -47,6 +48,8 @@ public class CitraApplication extends Application {
         createNotificationChannel();
 
         databaseHelper = new GameDatabase(this);
+
+        LibraryIndexWorker.schedule(this);
     }
 
     public static Context getAppContext() {
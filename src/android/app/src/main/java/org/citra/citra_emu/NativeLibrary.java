@@ -10,6 +10,7 @@ import android.app.Activity;
 import android.app.Dialog;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.text.Html;
 import android.text.method.LinkMovementMethod;
@@ -32,6 +33,9 @@ import org.citra.citra_emu.utils.Log;
 import org.citra.citra_emu.utils.PermissionsHandler;
 
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Objects;
 
@@ -133,6 +137,16 @@ public final class NativeLibrary {
      */
     public static native int[] GetIcon(String filename);
 
+    /**
+     * Copies the embedded icon of the given ROM straight into a bitmap, without any intermediate
+     * Java array.
+     *
+     * @param filename the file path to the ROM.
+     * @param bitmap   a mutable 48x48 RGB_565 bitmap.
+     * @return false if the ROM has no icon, in which case the bitmap is left untouched.
+     */
+    public static native boolean GetIconIntoBitmap(String filename, Bitmap bitmap);
+
     /**
      * Gets the embedded title of the given ISO/ROM.
      *
@@ -149,6 +163,17 @@ public final class NativeLibrary {
 
     public static native String GetCompany(String filename);
 
+    /**
+     * Reads the metadata of several ROMs at once, parsing them in parallel on a native thread per
+     * core. Use {@link GameMetadataBatch} rather than calling this directly.
+     *
+     * @param filenames The file paths to the ISOs/ROMs.
+     * @param result    A direct buffer with room for one record per file, in the layout described
+     *                  by {@link GameMetadataBatch}.
+     * @return false if the buffer is too small, in which case nothing was read.
+     */
+    public static native boolean GetGameMetadataBatch(String[] filenames, ByteBuffer result);
+
     public static native String GetGitRevision();
 
     /**
@@ -616,6 +641,107 @@ public final class NativeLibrary {
     @Nullable
     public static native SavestateInfo[] GetSavestateInfo();
 
+    public static final class GameMetadata {
+        public String title;
+        public String description;
+        public String gameId;
+        public String regions;
+        public String company;
+        // Whether the icon was written into the buffer passed to GameMetadataBatch.get.
+        public boolean hasIcon;
+    }
+
+    /**
+     * Reads the metadata of a batch of ROMs with a single native call. The native side writes a
+     * fixed-size record per ROM into a direct buffer, which is decoded here without any further
+     * JNI calls. The buffer is reused for every batch.
+     */
+    public static final class GameMetadataBatch {
+        // Record layout, mirrored from native.cpp: flags and three string lengths, each a short,
+        // then the title, company and regions as UTF-8, then the RGB_565 icon.
+        private static final int FLAGS_OFFSET = 0;
+        private static final int TITLE_LENGTH_OFFSET = 2;
+        private static final int COMPANY_LENGTH_OFFSET = 4;
+        private static final int REGIONS_LENGTH_OFFSET = 6;
+        private static final int TITLE_OFFSET = 8;
+        private static final int TITLE_CAPACITY = 384;
+        private static final int COMPANY_OFFSET = TITLE_OFFSET + TITLE_CAPACITY;
+        private static final int COMPANY_CAPACITY = 192;
+        private static final int REGIONS_OFFSET = COMPANY_OFFSET + COMPANY_CAPACITY;
+        private static final int REGIONS_CAPACITY = 128;
+        private static final int ICON_OFFSET = REGIONS_OFFSET + REGIONS_CAPACITY;
+        private static final int ICON_BYTES = 48 * 48 * 2;
+        private static final int RECORD_SIZE = ICON_OFFSET + ICON_BYTES;
+        private static final int HAS_ICON = 1;
+
+        private final int mCapacity;
+        private final ByteBuffer mBuffer;
+        private final byte[] mStringBytes = new byte[TITLE_CAPACITY];
+        private String[] mFilenames = new String[0];
+
+        /**
+         * @param capacity The largest number of ROMs read at once.
+         */
+        public GameMetadataBatch(int capacity) {
+            mCapacity = capacity;
+            mBuffer = ByteBuffer.allocateDirect(capacity * RECORD_SIZE)
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        public int getCapacity() {
+            return mCapacity;
+        }
+
+        /**
+         * Reads the given ROMs, replacing the results of the previous batch.
+         */
+        public void read(String[] filenames) {
+            if (filenames.length > mCapacity || !GetGameMetadataBatch(filenames, mBuffer)) {
+                throw new IllegalArgumentException("Batch of " + filenames.length +
+                        " games exceeds the capacity of " + mCapacity);
+            }
+            mFilenames = filenames;
+        }
+
+        /**
+         * @param index      The position of the ROM in the last batch read.
+         * @param iconBuffer A direct buffer of at least 48x48 RGB_565 pixels that receives the
+         *                   icon, or null if the icon isn't needed.
+         * @return the title, description, game ID, regions and company of the ROM.
+         */
+        public GameMetadata get(int index, @Nullable ByteBuffer iconBuffer) {
+            int record = index * RECORD_SIZE;
+
+            // Description and game ID mirror GetDescription and GetGameId, which report the
+            // filename.
+            GameMetadata metadata = new GameMetadata();
+            metadata.title = getString(record + TITLE_OFFSET, record + TITLE_LENGTH_OFFSET);
+            metadata.description = mFilenames[index];
+            metadata.gameId = mFilenames[index];
+            metadata.regions = getString(record + REGIONS_OFFSET, record + REGIONS_LENGTH_OFFSET);
+            metadata.company = getString(record + COMPANY_OFFSET, record + COMPANY_LENGTH_OFFSET);
+
+            if ((mBuffer.getShort(record + FLAGS_OFFSET) & HAS_ICON) != 0 && iconBuffer != null &&
+                    iconBuffer.capacity() >= ICON_BYTES) {
+                ByteBuffer icon = mBuffer.duplicate();
+                icon.limit(record + ICON_OFFSET + ICON_BYTES).position(record + ICON_OFFSET);
+                iconBuffer.clear();
+                iconBuffer.put(icon);
+                iconBuffer.clear();
+                metadata.hasIcon = true;
+            }
+            return metadata;
+        }
+
+        private String getString(int offset, int lengthOffset) {
+            int length = mBuffer.getShort(lengthOffset) & 0xFFFF;
+            for (int i = 0; i < length; i++) {
+                mStringBytes[i] = mBuffer.get(offset + i);
+            }
+            return new String(mStringBytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
     public static native void SaveState(int slot);
     public static native void LoadState(int slot);
 
@@ -0,0 +1,98 @@
+package org.citra.citra_emu.activities;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import org.citra.citra_emu.R;
+import org.citra.citra_emu.model.ScanReport;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Lists how long each phase of the last library scans took, for diagnosing slow libraries.
+ */
+public final class LibraryScanReportsActivity extends AppCompatActivity {
+    /**
+     * The key of the debug settings entry that opens this screen.
+     */
+    public static final String MENU_KEY = "LibraryScanReports";
+
+    private Disposable mLoadSubscription;
+
+    public static void launch(Context context) {
+        context.startActivity(new Intent(context, LibraryScanReportsActivity.class));
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setContentView(R.layout.activity_library_scan_reports);
+
+        // Show "Back" button in the action bar for navigation
+        Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
+
+        TextView reportsText = findViewById(R.id.text_reports);
+        mLoadSubscription = Observable.fromCallable(ScanReport::readAll)
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(reports -> reportsText.setText(reports.isEmpty() ?
+                        getString(R.string.no_library_scan_reports) : formatReports(reports)));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLoadSubscription.dispose();
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        onBackPressed();
+
+        return true;
+    }
+
+    private String formatReports(List<ScanReport> reports) {
+        java.text.DateFormat dateFormat = DateFormat.getDateFormat(this);
+        java.text.DateFormat timeFormat = DateFormat.getTimeFormat(this);
+
+        StringBuilder text = new StringBuilder();
+        for (ScanReport report : reports) {
+            Date startTime = new Date(report.getStartTime());
+            text.append(String.format(Locale.US,
+                    "%s %s, %s scan, %d ms\n%d files, %d games written, %d removed\n",
+                    dateFormat.format(startTime), timeFormat.format(startTime),
+                    report.isFullScan() ? "full" : "partial", report.getDurationMillis(),
+                    report.getFilesVisited(), report.getGamesWritten(),
+                    report.getGamesRemoved()));
+
+            // Times in milliseconds, percentiles per call.
+            text.append(String.format(Locale.US, "%-17s %7s %8s %9s %8s %8s %8s %8s\n",
+                    "Phase", "Calls", "Items", "Total", "p50", "p90", "p99", "Max"));
+            for (ScanReport.PhaseReport phase : report.getPhases()) {
+                text.append(String.format(Locale.US,
+                        "%-17s %7d %8d %9.1f %8.3f %8.3f %8.3f %8.3f\n",
+                        phase.getLabel(), phase.getCalls(), phase.getItems(),
+                        phase.getTotalMicros() / 1000.0, phase.getP50Micros() / 1000.0,
+                        phase.getP90Micros() / 1000.0, phase.getP99Micros() / 1000.0,
+                        phase.getMaxMicros() / 1000.0));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -1,53 +1,87 @@
 package org.citra.citra_emu.adapters;
 
-import android.database.Cursor;
-import android.database.DataSetObserver;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.os.Build;
 import android.os.SystemClock;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.RequiresApi;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.FragmentActivity;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.squareup.picasso.Picasso;
+
 import org.citra.citra_emu.R;
 import org.citra.citra_emu.activities.EmulationActivity;
-import org.citra.citra_emu.model.GameDatabase;
+import org.citra.citra_emu.model.DocumentTree;
+import org.citra.citra_emu.model.Game;
 import org.citra.citra_emu.ui.DividerItemDecoration;
+import org.citra.citra_emu.utils.ArchiveGameCache;
 import org.citra.citra_emu.utils.Log;
 import org.citra.citra_emu.utils.PicassoUtils;
 import org.citra.citra_emu.viewholders.GameViewHolder;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 
 /**
- * This adapter gets its information from a database Cursor. This fact, paired with the usage of
- * ContentProviders and Loaders, allows for efficient display of a limited view into a (possibly)
- * large dataset.
+ * This adapter displays the games read from the database, sorted by title. Games found by a
+ * library scan that is still running can be inserted into it incrementally.
+ * <p>
+ * Every change replaces the immutable list of games, and DiffUtil works out on a background
+ * thread which rows actually changed, so only those are rebound.
  */
 public final class GameAdapter extends RecyclerView.Adapter<GameViewHolder> implements
         View.OnClickListener {
-    private Cursor mCursor;
-    private final GameDataSetObserver mObserver;
-
-    private boolean mDatasetValid;
+    // Matches the database's "ORDER BY title ASC".
+    private static final Comparator<Game> TITLE_ORDER = Comparator.comparing(Game::getTitle);
+
+    private static final DiffUtil.ItemCallback<Game> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Game>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Game oldGame, @NonNull Game newGame) {
+                    return oldGame.getPath().equals(newGame.getPath());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Game oldGame, @NonNull Game newGame) {
+                    return oldGame.equals(newGame);
+                }
+            };
+
+    private final AsyncListDiffer<Game> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    // The list most recently handed to the differ. Later changes build on it, even while it is
+    // still being diffed.
+    private List<Game> mGames = Collections.emptyList();
     private long mLastClickTime = 0;
+    // Extracts the game that was clicked last, if it is in an archive.
+    @Nullable
+    private Disposable mExtraction;
 
     /**
-     * Initializes the adapter's observer, which watches for changes to the dataset. The adapter will
-     * display no data until a Cursor is supplied by a CursorLoader.
+     * The adapter will display no data until games are supplied through {@link #swapGames(List)}.
      */
     public GameAdapter() {
-        mDatasetValid = false;
-        mObserver = new GameDataSetObserver();
     }
 
     /**
@@ -77,37 +111,32 @@ public final class GameAdapter extends RecyclerView.Adapter<GameViewHolder> impl
      * @param holder   A ViewHolder representing the view we're recycling.
      * @param position The position of the 'new' view in the dataset.
      */
-    @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     public void onBindViewHolder(@NonNull GameViewHolder holder, int position) {
-        if (mDatasetValid) {
-            if (mCursor.moveToPosition(position)) {
-                PicassoUtils.loadGameIcon(holder.imageIcon,
-                        mCursor.getString(GameDatabase.GAME_COLUMN_PATH));
-
-                holder.textGameTitle.setText(mCursor.getString(GameDatabase.GAME_COLUMN_TITLE).replaceAll("[\\t\\n\\r]+", " "));
-                holder.textCompany.setText(mCursor.getString(GameDatabase.GAME_COLUMN_COMPANY));
-
-                final Path gamePath = Paths.get(mCursor.getString(GameDatabase.GAME_COLUMN_PATH));
-                holder.textFileName.setText(gamePath.getFileName().toString());
-
-                // TODO These shouldn't be necessary once the move to a DB-based model is complete.
-                holder.gameId = mCursor.getString(GameDatabase.GAME_COLUMN_GAME_ID);
-                holder.path = mCursor.getString(GameDatabase.GAME_COLUMN_PATH);
-                holder.title = mCursor.getString(GameDatabase.GAME_COLUMN_TITLE);
-                holder.description = mCursor.getString(GameDatabase.GAME_COLUMN_DESCRIPTION);
-                holder.regions = mCursor.getString(GameDatabase.GAME_COLUMN_REGIONS);
-                holder.company = mCursor.getString(GameDatabase.GAME_COLUMN_COMPANY);
-
-                final int backgroundColorId = isValidGame(holder.path) ? R.color.card_view_background : R.color.card_view_disabled;
-                View itemView = holder.getItemView();
-                itemView.setBackgroundColor(ContextCompat.getColor(itemView.getContext(), backgroundColorId));
-            } else {
-                Log.error("[GameAdapter] Can't bind view; Cursor is not valid.");
-            }
+        Game game = mDiffer.getCurrentList().get(position);
+
+        if (holder.iconDrawable.setIcon(game.getIconSlot())) {
+            Picasso.get().cancelRequest(holder.imageIcon);
+            holder.imageIcon.setImageDrawable(holder.iconDrawable);
         } else {
-            Log.error("[GameAdapter] Can't bind view; dataset is not valid.");
+            // Not in the atlas, either because the game has no icon or hasn't been rescanned yet.
+            PicassoUtils.loadGameIcon(holder.imageIcon, game.getPath());
         }
+
+        holder.textGameTitle.setText(game.getDisplayTitle());
+        holder.textCompany.setText(game.getCompany());
+        holder.textFileName.setText(game.getFileName());
+
+        // TODO These shouldn't be necessary once the move to a DB-based model is complete.
+        holder.gameId = game.getGameId();
+        holder.path = game.getPath();
+        holder.title = game.getTitle();
+        holder.regions = game.getRegions();
+        holder.company = game.getCompany();
+
+        final int backgroundColorId = game.isValid() ? R.color.card_view_background : R.color.card_view_disabled;
+        View itemView = holder.getItemView();
+        itemView.setBackgroundColor(ContextCompat.getColor(itemView.getContext(), backgroundColorId));
     }
 
     /**
@@ -117,34 +146,30 @@ public final class GameAdapter extends RecyclerView.Adapter<GameViewHolder> impl
      */
     @Override
     public int getItemCount() {
-        if (mDatasetValid && mCursor != null) {
-            return mCursor.getCount();
-        }
-        Log.error("[GameAdapter] Dataset is not valid.");
-        return 0;
+        return mDiffer.getCurrentList().size();
+    }
+
+    /**
+     * @return Whether there are no games, counting changes that are still being diffed.
+     */
+    public boolean isEmpty() {
+        return mGames.isEmpty();
     }
 
     /**
-     * Return the contents of the _id column for a given row.
+     * Derive an ID for a given row from the game's path, which is unique within the library.
      *
      * @param position The row for which Android wants an ID.
-     * @return A valid ID from the database, or 0 if not available.
+     * @return A stable ID for the game at that position.
      */
     @Override
     public long getItemId(int position) {
-        if (mDatasetValid && mCursor != null) {
-            if (mCursor.moveToPosition(position)) {
-                return mCursor.getLong(GameDatabase.COLUMN_DB_ID);
-            }
-        }
-
-        Log.error("[GameAdapter] Dataset is not valid.");
-        return 0;
+        return mDiffer.getCurrentList().get(position).getPath().hashCode();
     }
 
     /**
      * Tell Android whether or not each item in the dataset has a stable identifier.
-     * Which it does, because it's a database, so always tell Android 'true'.
+     * Which it does, because every game has a unique path, so always tell Android 'true'.
      *
      * @param hasStableIds ignored.
      */
@@ -157,33 +182,52 @@ public final class GameAdapter extends RecyclerView.Adapter<GameViewHolder> impl
      * When a load is finished, call this to replace the existing data with the newly-loaded
      * data.
      *
-     * @param cursor The newly-loaded Cursor.
+     * @param games The newly-loaded games, sorted by title.
      */
-    public void swapCursor(Cursor cursor) {
-        // Sanity check.
-        if (cursor == mCursor) {
-            return;
-        }
+    public void swapGames(List<Game> games) {
+        submitGames(new ArrayList<>(games));
+    }
 
-        // Before getting rid of the old cursor, disassociate it from the Observer.
-        final Cursor oldCursor = mCursor;
-        if (oldCursor != null && mObserver != null) {
-            oldCursor.unregisterDataSetObserver(mObserver);
+    /**
+     * Inserts games found by a running library scan at their sorted positions. A game that is
+     * already displayed is replaced.
+     *
+     * @param games Games that were just committed to the database.
+     */
+    public void addGames(List<Game> games) {
+        Set<String> addedPaths = new HashSet<>();
+        for (Game game : games) {
+            addedPaths.add(game.getPath());
         }
 
-        mCursor = cursor;
-        if (mCursor != null) {
-            // Attempt to associate the new Cursor with the Observer.
-            if (mObserver != null) {
-                mCursor.registerDataSetObserver(mObserver);
+        List<Game> newGames = new ArrayList<>(mGames);
+        newGames.removeIf(game -> addedPaths.contains(game.getPath()));
+        for (Game game : games) {
+            int position = Collections.binarySearch(newGames, game, TITLE_ORDER);
+            if (position < 0) {
+                position = -(position + 1);
             }
+            newGames.add(position, game);
+        }
+        submitGames(newGames);
+    }
 
-            mDatasetValid = true;
-        } else {
-            mDatasetValid = false;
+    /**
+     * Removes the games a library scan found to be gone.
+     *
+     * @param paths The paths of the removed games.
+     */
+    public void removeGames(Collection<String> paths) {
+        Set<String> removedPaths = new HashSet<>(paths);
+        List<Game> newGames = new ArrayList<>(mGames);
+        if (newGames.removeIf(game -> removedPaths.contains(game.getPath()))) {
+            submitGames(newGames);
         }
+    }
 
-        notifyDataSetChanged();
+    private void submitGames(List<Game> games) {
+        mGames = Collections.unmodifiableList(games);
+        mDiffer.submitList(mGames);
     }
 
     /**
@@ -200,8 +244,79 @@ public final class GameAdapter extends RecyclerView.Adapter<GameViewHolder> impl
         mLastClickTime = SystemClock.elapsedRealtime();
 
         GameViewHolder holder = (GameViewHolder) view.getTag();
+        FragmentActivity activity = (FragmentActivity) view.getContext();
+
+        if (DocumentTree.isDocumentPath(holder.path)) {
+            // The emulator opens games by path, which documents don't have.
+            try {
+                EmulationActivity.launch(activity,
+                        DocumentTree.openForEmulation(holder.path), holder.title);
+            } catch (FileNotFoundException e) {
+                Log.error("[GameAdapter] Failed to open " + holder.path + ": " + e);
+                Toast.makeText(activity, R.string.opening_game_failed, Toast.LENGTH_LONG).show();
+            }
+            return;
+        }
+
+        if (!ArchiveGameCache.isArchiveEntry(holder.path)) {
+            EmulationActivity.launch(activity, holder.path, holder.title);
+            return;
+        }
+
+        // Games in archives have to be extracted before they can be launched.
+        String path = holder.path;
+        String title = holder.title;
+        Toast.makeText(activity, activity.getString(R.string.extracting_game, title),
+                Toast.LENGTH_SHORT).show();
+        if (mExtraction != null) {
+            mExtraction.dispose();
+        }
+        // Disposing interrupts the extraction, whose failure then has nobody to be reported to.
+        mExtraction = Single.<String>create(emitter ->
+        {
+            try {
+                emitter.onSuccess(ArchiveGameCache.extract(path));
+            } catch (IOException e) {
+                emitter.tryOnError(e);
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(extractedPath -> EmulationActivity.launch(activity, extractedPath, title),
+                        throwable ->
+                        {
+                            Log.error("[GameAdapter] Failed to extract " + path + ": " + throwable);
+                            if (throwable instanceof ArchiveGameCache.GameTooLargeException) {
+                                long maxBytes = ((ArchiveGameCache.GameTooLargeException)
+                                        throwable).getMaxBytes();
+                                Toast.makeText(activity, activity.getString(
+                                        R.string.extracting_game_too_large,
+                                        Formatter.formatShortFileSize(activity, maxBytes)),
+                                        Toast.LENGTH_LONG).show();
+                            } else if (throwable instanceof
+                                    ArchiveGameCache.NotEnoughSpaceException) {
+                                long neededBytes = ((ArchiveGameCache.NotEnoughSpaceException)
+                                        throwable).getNeededBytes();
+                                Toast.makeText(activity, activity.getString(
+                                        R.string.extracting_game_no_space,
+                                        Formatter.formatShortFileSize(activity, neededBytes)),
+                                        Toast.LENGTH_LONG).show();
+                            } else {
+                                Toast.makeText(activity, R.string.extracting_game_failed,
+                                        Toast.LENGTH_LONG).show();
+                            }
+                        });
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
 
-        EmulationActivity.launch((FragmentActivity) view.getContext(), holder.path, holder.title);
+        // The user left, so the extracted game mustn't be launched anymore.
+        if (mExtraction != null) {
+            mExtraction.dispose();
+            mExtraction = null;
+        }
     }
 
     public static class SpacesItemDecoration extends DividerItemDecoration {
@@ -221,27 +336,4 @@ public final class GameAdapter extends RecyclerView.Adapter<GameViewHolder> impl
             outRect.top = 0;
         }
     }
-
-    private boolean isValidGame(String path) {
-        return Stream.of(
-                ".rar", ".zip", ".7z", ".torrent", ".tar", ".gz").noneMatch(suffix -> path.toLowerCase().endsWith(suffix));
-    }
-
-    private final class GameDataSetObserver extends DataSetObserver {
-        @Override
-        public void onChanged() {
-            super.onChanged();
-
-            mDatasetValid = true;
-            notifyDataSetChanged();
-        }
-
-        @Override
-        public void onInvalidated() {
-            super.onInvalidated();
-
-            mDatasetValid = false;
-            notifyDataSetChanged();
-        }
-    }
 }
@@ -15,6 +15,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.citra.citra_emu.R;
+import org.citra.citra_emu.activities.LibraryScanReportsActivity;
 import org.citra.citra_emu.dialogs.MotionAlertDialog;
 import org.citra.citra_emu.features.settings.model.FloatSetting;
 import org.citra.citra_emu.features.settings.model.IntSetting;
@@ -310,6 +311,11 @@ public final class SettingsAdapter extends RecyclerView.Adapter<SettingViewHolde
     }
 
     public void onSubmenuClick(SubmenuSetting item) {
+        if (LibraryScanReportsActivity.MENU_KEY.equals(item.getMenuKey())) {
+            LibraryScanReportsActivity.launch(mContext);
+            return;
+        }
+
         mView.loadSubMenu(item.getMenuKey());
     }
 
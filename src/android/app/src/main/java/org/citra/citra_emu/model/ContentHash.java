@@ -0,0 +1,107 @@
+package org.citra.citra_emu.model;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A fast hash of a file's contents, used to recognize copies of a game under different paths.
+ * Only the header and a fixed number of blocks spread evenly over the rest of the file are read,
+ * through memory mappings, so hashing costs about the same for every file whatever its size.
+ * Files with the same size, header and samples, such as a game and a patched copy of it, can
+ * still differ, so a match is only a candidate: before one file is recorded as a copy of
+ * another, {@link #sameContents} compares them in full.
+ */
+final class ContentHash {
+    // ROM headers, including the NCSD and NCCH headers of cartridge dumps, fit in the first block.
+    private static final int HEADER_BYTES = 64 * 1024;
+    private static final int SAMPLE_BYTES = 4 * 1024;
+    private static final int SAMPLE_COUNT = 16;
+    private static final int COMPARE_BYTES = 256 * 1024;
+
+    private ContentHash() {
+        // Disallows instantiation.
+    }
+
+    static long of(String path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device supports SHA-1.
+            throw new IllegalStateException(e);
+        }
+
+        try (FileChannel channel = openChannel(path)) {
+            long size = channel.size();
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+
+            long headerSize = Math.min(size, HEADER_BYTES);
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize));
+
+            // Spread over whatever follows the header, ending with the last block of the file.
+            long remaining = size - headerSize;
+            if (remaining > (long) SAMPLE_COUNT * SAMPLE_BYTES) {
+                long stride = (remaining - SAMPLE_BYTES) / (SAMPLE_COUNT - 1);
+                for (int i = 0; i < SAMPLE_COUNT; i++) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY,
+                            headerSize + i * stride, SAMPLE_BYTES));
+                }
+            } else if (remaining > 0) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, headerSize, remaining));
+            }
+        }
+
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * Reads both files to the end, so only called for files whose hashes already match.
+     */
+    static boolean sameContents(String path, String otherPath) throws IOException {
+        try (FileChannel channel = openChannel(path);
+             FileChannel otherChannel = openChannel(otherPath)) {
+            if (channel.size() != otherChannel.size()) {
+                return false;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(COMPARE_BYTES);
+            ByteBuffer otherBuffer = ByteBuffer.allocate(COMPARE_BYTES);
+            while (readFully(channel, buffer)) {
+                readFully(otherChannel, otherBuffer);
+                if (!buffer.equals(otherBuffer)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Fills the buffer, unless the end of the channel comes first.
+     *
+     * @return Whether anything was read. The buffer is flipped, ready to be compared.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Reads until the buffer is full or the channel ends.
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    private static FileChannel openChannel(String path) throws IOException {
+        if (DocumentTree.isDocumentPath(path)) {
+            // Closing the stream closes the descriptor as well.
+            return new ParcelFileDescriptor.AutoCloseInputStream(DocumentTree.open(path))
+                    .getChannel();
+        }
+        return new FileInputStream(path).getChannel();
+    }
+}
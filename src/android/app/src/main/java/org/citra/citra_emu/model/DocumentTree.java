@@ -0,0 +1,264 @@
+package org.citra.citra_emu.model;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.utils.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A library folder picked through the Storage Access Framework, which java.io.File can't see
+ * under scoped storage. The folder is stored under its tree URI, and its games under the URIs of
+ * their documents.
+ * <p>
+ * Every directory is listed with a single query for just the columns the scanner needs, where
+ * DocumentFile would make another call to the provider for each property of each child. Listings
+ * are cached per tree for as long as the process lives. A directory without subdirectories is
+ * not listed again while its modification time stays the same, so rescanning an unchanged
+ * library mostly costs the listings of the directories above the games. Files rewritten in place
+ * don't change the time of their directory, so an explicit refresh lists everything again.
+ */
+public final class DocumentTree {
+    private static final String[] PROJECTION = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_MIME_TYPE};
+    private static final int COLUMN_DOCUMENT_ID = 0;
+    private static final int COLUMN_DISPLAY_NAME = 1;
+    private static final int COLUMN_SIZE = 2;
+    private static final int COLUMN_LAST_MODIFIED = 3;
+    private static final int COLUMN_MIME_TYPE = 4;
+
+    private static final String PROC_FD_PATH = "/proc/self/fd/";
+
+    private static final Map<String, DocumentTree> sTrees = new ConcurrentHashMap<>();
+
+    // The document of the game being emulated, kept open for as long as it runs.
+    @Nullable
+    private static ParcelFileDescriptor sEmulatedDocument;
+
+    static final class Document {
+        final String documentId;
+        final String name;
+        final long size;
+        // In milliseconds since the epoch, or 0 if the provider doesn't say.
+        final long lastModified;
+        final boolean isDirectory;
+
+        Document(String documentId, String name, long size, long lastModified,
+                 boolean isDirectory) {
+            this.documentId = documentId;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.isDirectory = isDirectory;
+        }
+
+        FileFingerprint getFingerprint() {
+            // Documents have no inode, the size and time have to do.
+            return new FileFingerprint(size, lastModified, 0);
+        }
+    }
+
+    private static final class Listing {
+        final long lastModified;
+        final List<Document> children;
+        final boolean hasSubdirectories;
+
+        Listing(long lastModified, List<Document> children, boolean hasSubdirectories) {
+            this.lastModified = lastModified;
+            this.children = children;
+            this.hasSubdirectories = hasSubdirectories;
+        }
+    }
+
+    private final Uri mTreeUri;
+    private final String mPath;
+    // Keyed by the document ID of the directory.
+    private final Map<String, Listing> mListings = new ConcurrentHashMap<>();
+    // The folder itself, as last queried.
+    @Nullable
+    private volatile Document mRoot;
+
+    private DocumentTree(String path) {
+        mPath = path;
+        mTreeUri = Uri.parse(path);
+    }
+
+    /**
+     * @return Whether the library path is a document URI rather than a file path.
+     */
+    public static boolean isDocumentPath(String path) {
+        return path.startsWith(ContentResolver.SCHEME_CONTENT + "://");
+    }
+
+    /**
+     * @param path The tree URI of a library folder.
+     */
+    static DocumentTree get(String path) {
+        return sTrees.computeIfAbsent(path, DocumentTree::new);
+    }
+
+    /**
+     * Forgets every listing, so the next scan asks the providers again.
+     */
+    static void clearCache() {
+        sTrees.clear();
+    }
+
+    String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Asks the provider for the folder itself. Scans do this once, before walking the folder.
+     *
+     * @return The folder, or null if it is gone or access to it was revoked.
+     */
+    @Nullable
+    Document queryRoot() {
+        Uri rootUri = DocumentsContract.buildDocumentUriUsingTree(mTreeUri,
+                DocumentsContract.getTreeDocumentId(mTreeUri));
+        List<Document> documents = query(rootUri);
+        mRoot = documents.isEmpty() ? null : documents.get(0);
+        return mRoot;
+    }
+
+    /**
+     * @return The folder as {@link #queryRoot} last found it, or null if it didn't.
+     */
+    @Nullable
+    Document getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @param directory A directory in this tree, as listed by its parent or {@link #queryRoot}.
+     * @return The directory's children, from the cache if it can't have changed.
+     */
+    List<Document> listChildren(Document directory) {
+        Listing listing = mListings.get(directory.documentId);
+        if (listing != null && !listing.hasSubdirectories && directory.lastModified != 0 &&
+                listing.lastModified == directory.lastModified) {
+            return listing.children;
+        }
+
+        List<Document> children = query(DocumentsContract.buildChildDocumentsUriUsingTree(
+                mTreeUri, directory.documentId));
+        boolean hasSubdirectories = false;
+        for (Document child : children) {
+            hasSubdirectories |= child.isDirectory;
+        }
+        mListings.put(directory.documentId,
+                new Listing(directory.lastModified, children, hasSubdirectories));
+        return children;
+    }
+
+    /**
+     * @return The path the document is stored under in the library.
+     */
+    String getDocumentPath(Document document) {
+        return DocumentsContract.buildDocumentUriUsingTree(mTreeUri, document.documentId)
+                .toString();
+    }
+
+    /**
+     * Only for documents whose display name wasn't stored, such as copies that took the place of
+     * a removed game. Providers with opaque document IDs don't give away the name this way.
+     *
+     * @return The file name of a document in the library, as far as its URI tells.
+     */
+    static String getFileName(String documentPath) {
+        String documentId = DocumentsContract.getDocumentId(Uri.parse(documentPath));
+        return documentId.substring(documentId.lastIndexOf('/') + 1);
+    }
+
+    static boolean exists(String documentPath) {
+        return !query(Uri.parse(documentPath)).isEmpty();
+    }
+
+    static ParcelFileDescriptor open(String documentPath) throws FileNotFoundException {
+        ParcelFileDescriptor descriptor;
+        try {
+            descriptor = CitraApplication.getAppContext().getContentResolver()
+                    .openFileDescriptor(Uri.parse(documentPath), "r");
+        } catch (RuntimeException e) {
+            // Thrown when the permission was revoked, or the provider is gone.
+            throw new FileNotFoundException("Can't open " + documentPath + ": " + e);
+        }
+        if (descriptor == null) {
+            throw new FileNotFoundException("Provider crashed opening " + documentPath);
+        }
+        return descriptor;
+    }
+
+    /**
+     * @return A path the native code can open an open descriptor by.
+     */
+    static String getDescriptorPath(ParcelFileDescriptor descriptor) {
+        return PROC_FD_PATH + descriptor.getFd();
+    }
+
+    /**
+     * Opens a game for the emulator, which only takes paths. The previously emulated game is
+     * closed.
+     *
+     * @return A path to the open document.
+     */
+    public static synchronized String openForEmulation(String documentPath)
+            throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = open(documentPath);
+        if (sEmulatedDocument != null) {
+            try {
+                sEmulatedDocument.close();
+            } catch (IOException e) {
+                Log.warning("[DocumentTree] Failed to close the previous game: " + e);
+            }
+        }
+        sEmulatedDocument = descriptor;
+        return getDescriptorPath(descriptor);
+    }
+
+    /**
+     * @return The documents the URI resolves to, or none if they can't be accessed.
+     */
+    private static List<Document> query(Uri uri) {
+        List<Document> documents = new ArrayList<>();
+        ContentResolver resolver = CitraApplication.getAppContext().getContentResolver();
+        try (Cursor cursor = resolver.query(uri, PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                return Collections.emptyList();
+            }
+
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(COLUMN_DISPLAY_NAME);
+                documents.add(new Document(cursor.getString(COLUMN_DOCUMENT_ID),
+                        name != null ? name : "",
+                        cursor.getLong(COLUMN_SIZE),
+                        cursor.getLong(COLUMN_LAST_MODIFIED),
+                        DocumentsContract.Document.MIME_TYPE_DIR.equals(
+                                cursor.getString(COLUMN_MIME_TYPE))));
+            }
+        } catch (RuntimeException e) {
+            // Thrown when the permission was revoked, or the provider is gone.
+            Log.warning("[DocumentTree] Failed to query " + uri + ": " + e);
+            return Collections.emptyList();
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,89 @@
+package org.citra.citra_emu.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The size, modification time and inode of a file, as recorded in the games table. A file whose
+ * fingerprint still matches the stored one has not changed since it was last parsed.
+ */
+public final class FileFingerprint {
+    private final long mSize;
+    private final long mLastModified;
+    private final long mInode;
+
+    public FileFingerprint(long size, long lastModified, long inode) {
+        mSize = size;
+        mLastModified = lastModified;
+        mInode = inode;
+    }
+
+    /**
+     * Reads the fingerprint of a file with a single stat() call.
+     *
+     * @param path The file to inspect.
+     * @return The fingerprint, or null if the file can't be accessed.
+     */
+    @Nullable
+    public static FileFingerprint of(String path) {
+        try {
+            StructStat stat = Os.stat(path);
+            return new FileFingerprint(stat.st_size, stat.st_mtime * 1000, stat.st_ino);
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    public static FileFingerprint fromCursor(Cursor cursor, int sizeColumn, int lastModifiedColumn,
+                                             int inodeColumn) {
+        return new FileFingerprint(cursor.getLong(sizeColumn),
+                cursor.getLong(lastModifiedColumn),
+                cursor.getLong(inodeColumn));
+    }
+
+    public void putInto(ContentValues values) {
+        values.put(GameDatabase.KEY_GAME_SIZE, mSize);
+        values.put(GameDatabase.KEY_GAME_LAST_MODIFIED, mLastModified);
+        values.put(GameDatabase.KEY_GAME_INODE, mInode);
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    public long getInode() {
+        return mInode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileFingerprint)) {
+            return false;
+        }
+
+        FileFingerprint fingerprint = (FileFingerprint) other;
+        return mSize == fingerprint.mSize
+                && mLastModified == fingerprint.mLastModified
+                && mInode == fingerprint.mInode;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(mSize);
+        result = 31 * result + Long.hashCode(mLastModified);
+        result = 31 * result + Long.hashCode(mInode);
+        return result;
+    }
+}
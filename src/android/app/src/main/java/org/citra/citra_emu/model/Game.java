@@ -3,24 +3,69 @@ package org.citra.citra_emu.model;
 import android.content.ContentValues;
 import android.database.Cursor;
 
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.utils.GameIconAtlas;
+
 import java.nio.file.Paths;
+import java.util.Objects;
 
+/**
+ * One game of the library. Games are immutable, and everything the game grid shows is worked out
+ * once when the game is created, so binding a row does no string processing.
+ * <p>
+ * Games shown by the grid are read without their description, which is only stored for
+ * searching.
+ */
 public final class Game {
+    // Archives are listed so users can find them, but can't be launched.
+    private static final String[] ARCHIVE_EXTENSIONS = {
+            ".rar", ".zip", ".7z", ".torrent", ".tar", ".gz"};
+
     private final String mTitle;
     private final String mDescription;
     private final String mPath;
     private final String mGameId;
     private final String mCompany;
     private final String mRegions;
+    private final int mIconSlot;
+    private final String mDisplayTitle;
+    private final String mFileName;
+    private final boolean mValid;
 
+    /**
+     * @param fileName The display name of a document, or null to take the file name from the
+     *                 path.
+     */
     public Game(String title, String description, String regions, String path,
-                String gameId, String company) {
+                String gameId, String company, int iconSlot, @Nullable String fileName) {
         mTitle = title;
         mDescription = description;
         mRegions = regions;
         mPath = path;
         mGameId = gameId;
         mCompany = company;
+        mIconSlot = iconSlot;
+
+        mDisplayTitle = title.replaceAll("[\\t\\n\\r]+", " ");
+        if (fileName != null) {
+            mFileName = fileName;
+        } else if (DocumentTree.isDocumentPath(path)) {
+            mFileName = DocumentTree.getFileName(path);
+        } else {
+            mFileName = path.substring(path.lastIndexOf('/') + 1);
+        }
+        mValid = isLaunchable(path);
+    }
+
+    private static boolean isLaunchable(String path) {
+        String lowerCasePath = path.toLowerCase();
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (lowerCasePath.endsWith(extension)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static ContentValues asContentValues(String title, String description, String regions, String path, String gameId, String company) {
@@ -41,19 +86,48 @@ public final class Game {
         return values;
     }
 
+    /**
+     * @param cursor A cursor holding at least the {@link GameDatabase#GRID_PROJECTION} columns.
+     *               The description is only read if the cursor has it.
+     */
     public static Game fromCursor(Cursor cursor) {
-        return new Game(cursor.getString(GameDatabase.GAME_COLUMN_TITLE),
-                cursor.getString(GameDatabase.GAME_COLUMN_DESCRIPTION),
-                cursor.getString(GameDatabase.GAME_COLUMN_REGIONS),
-                cursor.getString(GameDatabase.GAME_COLUMN_PATH),
-                cursor.getString(GameDatabase.GAME_COLUMN_GAME_ID),
-                cursor.getString(GameDatabase.GAME_COLUMN_COMPANY));
+        int descriptionColumn = cursor.getColumnIndex(GameDatabase.KEY_GAME_DESCRIPTION);
+        int iconSlotColumn = cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_ICON_SLOT);
+        int fileNameColumn = cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_FILE_NAME);
+        return new Game(cursor.getString(cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_TITLE)),
+                descriptionColumn < 0 ? null : cursor.getString(descriptionColumn),
+                cursor.getString(cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_REGIONS)),
+                cursor.getString(cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_PATH)),
+                cursor.getString(cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_COMPANY)),
+                cursor.isNull(iconSlotColumn) ? GameIconAtlas.NO_SLOT : cursor.getInt(iconSlotColumn),
+                cursor.getString(fileNameColumn));
+    }
+
+    /**
+     * Makes the grid's version of a game a library scan just wrote, leaving out the description
+     * like a game read through {@link GameDatabase#GRID_PROJECTION}.
+     */
+    public static Game fromContentValues(ContentValues values) {
+        Integer iconSlot = values.getAsInteger(GameDatabase.KEY_GAME_ICON_SLOT);
+        return new Game(values.getAsString(GameDatabase.KEY_GAME_TITLE),
+                null,
+                values.getAsString(GameDatabase.KEY_GAME_REGIONS),
+                values.getAsString(GameDatabase.KEY_GAME_PATH),
+                values.getAsString(GameDatabase.KEY_GAME_ID),
+                values.getAsString(GameDatabase.KEY_GAME_COMPANY),
+                iconSlot != null ? iconSlot : GameIconAtlas.NO_SLOT,
+                values.getAsString(GameDatabase.KEY_GAME_FILE_NAME));
     }
 
     public String getTitle() {
         return mTitle;
     }
 
+    /**
+     * @return The description, or null if the game was read without it.
+     */
+    @Nullable
     public String getDescription() {
         return mDescription;
     }
@@ -73,4 +147,56 @@ public final class Game {
     public String getGameId() {
         return mGameId;
     }
+
+    /**
+     * @return Where the game's icon is stored in the {@link GameIconAtlas}, or
+     * {@link GameIconAtlas#NO_SLOT} if it isn't.
+     */
+    public int getIconSlot() {
+        return mIconSlot;
+    }
+
+    /**
+     * @return The title on a single line.
+     */
+    public String getDisplayTitle() {
+        return mDisplayTitle;
+    }
+
+    public String getFileName() {
+        return mFileName;
+    }
+
+    /**
+     * @return false if the game is an archive, which can't be launched.
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Game)) {
+            return false;
+        }
+
+        Game game = (Game) other;
+        return mIconSlot == game.mIconSlot
+                && Objects.equals(mTitle, game.mTitle)
+                && Objects.equals(mDescription, game.mDescription)
+                && Objects.equals(mPath, game.mPath)
+                && Objects.equals(mGameId, game.mGameId)
+                && Objects.equals(mCompany, game.mCompany)
+                && Objects.equals(mRegions, game.mRegions)
+                && Objects.equals(mFileName, game.mFileName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mTitle, mDescription, mPath, mGameId, mCompany, mRegions, mIconSlot,
+                mFileName);
+    }
 }
@@ -1,20 +1,26 @@
 package org.citra.citra_emu.model;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
 
-import org.citra.citra_emu.NativeLibrary;
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.utils.ArchiveGameCache;
+import org.citra.citra_emu.utils.GameIconAtlas;
 import org.citra.citra_emu.utils.Log;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import io.reactivex.rxjava3.core.Observable;
+import java.util.function.Consumer;
 
 /**
  * A helper class that provides several utilities simplifying interaction with
@@ -28,6 +34,13 @@ public final class GameDatabase extends SQLiteOpenHelper {
     public static final int GAME_COLUMN_REGIONS = 4;
     public static final int GAME_COLUMN_GAME_ID = 5;
     public static final int GAME_COLUMN_COMPANY = 6;
+    public static final int GAME_COLUMN_SIZE = 7;
+    public static final int GAME_COLUMN_LAST_MODIFIED = 8;
+    public static final int GAME_COLUMN_INODE = 9;
+    public static final int GAME_COLUMN_ICON_SLOT = 10;
+    public static final int GAME_COLUMN_CONTENT_HASH = 11;
+    public static final int GAME_COLUMN_SCAN_GENERATION = 12;
+    public static final int GAME_COLUMN_FILE_NAME = 13;
     public static final int FOLDER_COLUMN_PATH = 1;
     public static final String KEY_DB_ID = "_id";
     public static final String KEY_GAME_PATH = "path";
@@ -36,18 +49,37 @@ public final class GameDatabase extends SQLiteOpenHelper {
     public static final String KEY_GAME_REGIONS = "regions";
     public static final String KEY_GAME_ID = "game_id";
     public static final String KEY_GAME_COMPANY = "company";
+    public static final String KEY_GAME_SIZE = "size";
+    public static final String KEY_GAME_LAST_MODIFIED = "last_modified";
+    public static final String KEY_GAME_INODE = "inode";
+    public static final String KEY_GAME_ICON_SLOT = "icon_slot";
+    public static final String KEY_GAME_CONTENT_HASH = "content_hash";
+    public static final String KEY_GAME_SCAN_GENERATION = "scan_generation";
+    // The display name of a document, whose path doesn't end in it. Null for files.
+    public static final String KEY_GAME_FILE_NAME = "file_name";
     public static final String KEY_FOLDER_PATH = "path";
     public static final String TABLE_NAME_FOLDERS = "folders";
     public static final String TABLE_NAME_GAMES = "games";
-    private static final int DB_VERSION = 2;
+    public static final String TABLE_NAME_GAMES_FTS = "games_fts";
+    public static final String TABLE_NAME_DUPLICATES = "duplicates";
+    static final int DB_VERSION = 10;
     private static final String TYPE_PRIMARY = " INTEGER PRIMARY KEY";
     private static final String TYPE_INTEGER = " INTEGER";
     private static final String TYPE_STRING = " TEXT";
+    private static final String TYPE_GENERATION = " INTEGER NOT NULL DEFAULT 0";
 
     private static final String CONSTRAINT_UNIQUE = " UNIQUE";
 
     private static final String SEPARATOR = ", ";
 
+    /**
+     * The columns the game grid shows. Descriptions can be long and are never shown in the grid,
+     * so they are left out. They are only stored for searching.
+     */
+    public static final String[] GRID_PROJECTION = {KEY_DB_ID, KEY_GAME_PATH, KEY_GAME_TITLE,
+            KEY_GAME_REGIONS, KEY_GAME_ID, KEY_GAME_COMPANY, KEY_GAME_ICON_SLOT,
+            KEY_GAME_FILE_NAME};
+
     private static final String SQL_CREATE_GAMES = "CREATE TABLE " + TABLE_NAME_GAMES + "("
             + KEY_DB_ID + TYPE_PRIMARY + SEPARATOR
             + KEY_GAME_PATH + TYPE_STRING + SEPARATOR
@@ -55,7 +87,72 @@ public final class GameDatabase extends SQLiteOpenHelper {
             + KEY_GAME_DESCRIPTION + TYPE_STRING + SEPARATOR
             + KEY_GAME_REGIONS + TYPE_STRING + SEPARATOR
             + KEY_GAME_ID + TYPE_STRING + SEPARATOR
-            + KEY_GAME_COMPANY + TYPE_STRING + ")";
+            + KEY_GAME_COMPANY + TYPE_STRING + SEPARATOR
+            + KEY_GAME_SIZE + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_LAST_MODIFIED + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_INODE + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_ICON_SLOT + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_CONTENT_HASH + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_SCAN_GENERATION + TYPE_GENERATION + SEPARATOR
+            + KEY_GAME_FILE_NAME + TYPE_STRING + ")";
+
+    // Further copies of games that are already in the games table, found by their content hash.
+    // Only the copy in the games table is shown.
+    static final String SQL_CREATE_DUPLICATES = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME_DUPLICATES + "("
+            + KEY_DB_ID + TYPE_PRIMARY + SEPARATOR
+            + KEY_GAME_PATH + TYPE_STRING + CONSTRAINT_UNIQUE + SEPARATOR
+            + KEY_GAME_CONTENT_HASH + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_SIZE + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_LAST_MODIFIED + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_INODE + TYPE_INTEGER + SEPARATOR
+            + KEY_GAME_SCAN_GENERATION + TYPE_GENERATION + ")";
+
+    static final String SQL_CREATE_GAMES_PATH_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS "
+            + TABLE_NAME_GAMES + "_" + KEY_GAME_PATH + " ON " + TABLE_NAME_GAMES + "(" + KEY_GAME_PATH + ")";
+    static final String SQL_CREATE_GAMES_ID_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS "
+            + TABLE_NAME_GAMES + "_" + KEY_GAME_ID + " ON " + TABLE_NAME_GAMES + "(" + KEY_GAME_ID + ")";
+    static final String SQL_CREATE_GAMES_HASH_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME_GAMES + "_" + KEY_GAME_CONTENT_HASH + " ON " + TABLE_NAME_GAMES + "(" + KEY_GAME_CONTENT_HASH + ")";
+    static final String SQL_CREATE_DUPLICATES_HASH_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME_DUPLICATES + "_" + KEY_GAME_CONTENT_HASH + " ON " + TABLE_NAME_DUPLICATES + "(" + KEY_GAME_CONTENT_HASH + ")";
+    // Lets a scan find the rows it didn't come across without reading the others.
+    static final String SQL_CREATE_GAMES_GENERATION_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME_GAMES + "_" + KEY_GAME_SCAN_GENERATION + " ON " + TABLE_NAME_GAMES + "(" + KEY_GAME_SCAN_GENERATION + ")";
+    static final String SQL_CREATE_DUPLICATES_GENERATION_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME_DUPLICATES + "_" + KEY_GAME_SCAN_GENERATION + " ON " + TABLE_NAME_DUPLICATES + "(" + KEY_GAME_SCAN_GENERATION + ")";
+    // Every index entry ends with the row ID, so this index is ordered by (title, _id), the key
+    // the game list is paged by.
+    static final String SQL_CREATE_GAMES_TITLE_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME_GAMES + "_" + KEY_GAME_TITLE + " ON " + TABLE_NAME_GAMES + "(" + KEY_GAME_TITLE + ")";
+
+    // A full-text index over the searchable columns. It stores no copy of the text, only the index,
+    // and is kept in sync with the games table by triggers. Two and three letter prefixes are
+    // indexed as well, so searching as the user types stays fast.
+    static final String SQL_CREATE_GAMES_FTS = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + TABLE_NAME_GAMES_FTS + " USING fts4("
+            + KEY_GAME_TITLE + SEPARATOR
+            + KEY_GAME_COMPANY + SEPARATOR
+            + KEY_GAME_DESCRIPTION + SEPARATOR
+            + KEY_GAME_ID + SEPARATOR
+            + "content=\"" + TABLE_NAME_GAMES + "\"" + SEPARATOR
+            + "prefix=\"2,3\")";
+    static final String SQL_REBUILD_GAMES_FTS = "INSERT INTO " + TABLE_NAME_GAMES_FTS + "("
+            + TABLE_NAME_GAMES_FTS + ") VALUES('rebuild')";
+    // Updates only touch the index if they change an indexed column, so scans can move games and
+    // mark them as seen without reindexing them.
+    private static final String FTS_COLUMNS = KEY_GAME_TITLE + SEPARATOR + KEY_GAME_COMPANY
+            + SEPARATOR + KEY_GAME_DESCRIPTION + SEPARATOR + KEY_GAME_ID;
+    static final String[] SQL_CREATE_GAMES_FTS_TRIGGERS = {
+            createFtsTrigger("before_update", "BEFORE UPDATE OF " + FTS_COLUMNS, false),
+            createFtsTrigger("before_delete", "BEFORE DELETE", false),
+            createFtsTrigger("after_update", "AFTER UPDATE OF " + FTS_COLUMNS, true),
+            createFtsTrigger("after_insert", "AFTER INSERT", true)
+    };
+    static final String[] SQL_DROP_GAMES_FTS_UPDATE_TRIGGERS = {
+            "DROP TRIGGER IF EXISTS " + TABLE_NAME_GAMES_FTS + "_before_update",
+            "DROP TRIGGER IF EXISTS " + TABLE_NAME_GAMES_FTS + "_after_update"
+    };
 
     private static final String SQL_CREATE_FOLDERS = "CREATE TABLE " + TABLE_NAME_FOLDERS + "("
             + KEY_DB_ID + TYPE_PRIMARY + SEPARATOR
@@ -63,28 +160,42 @@ public final class GameDatabase extends SQLiteOpenHelper {
 
     private static final String SQL_DELETE_FOLDERS = "DROP TABLE IF EXISTS " + TABLE_NAME_FOLDERS;
     private static final String SQL_DELETE_GAMES = "DROP TABLE IF EXISTS " + TABLE_NAME_GAMES;
+    private static final String SQL_DELETE_DUPLICATES =
+            "DROP TABLE IF EXISTS " + TABLE_NAME_DUPLICATES;
+    private static final String SQL_DELETE_GAMES_FTS =
+            "DROP TABLE IF EXISTS " + TABLE_NAME_GAMES_FTS;
+
+    private static final String SQL_SEARCH_GAMES = "SELECT "
+            + TABLE_NAME_GAMES + "." + String.join(SEPARATOR + TABLE_NAME_GAMES + ".", GRID_PROJECTION)
+            + " FROM "
+            + TABLE_NAME_GAMES + " JOIN " + TABLE_NAME_GAMES_FTS
+            + " ON " + TABLE_NAME_GAMES + "." + KEY_DB_ID + " = " + TABLE_NAME_GAMES_FTS + ".docid"
+            + " WHERE " + TABLE_NAME_GAMES_FTS + " MATCH ?"
+            + " ORDER BY " + TABLE_NAME_GAMES + "." + KEY_GAME_TITLE + " ASC";
 
     public GameDatabase(Context context) {
         // Superclass constructor builds a database or uses an existing one.
         super(context, "games.db", null, DB_VERSION);
+
+        // Lets the game list be read while a scan is committing its batches.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase database) {
         Log.debug("[GameDatabase] GameDatabase - Creating database...");
 
-        execSqlAndLog(database, SQL_CREATE_GAMES);
+        createGamesTable(database);
         execSqlAndLog(database, SQL_CREATE_FOLDERS);
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase database, int oldVersion, int newVersion) {
-        Log.verbose("[GameDatabase] Downgrades not supporting, clearing databases..");
-        execSqlAndLog(database, SQL_DELETE_FOLDERS);
-        execSqlAndLog(database, SQL_CREATE_FOLDERS);
+        Log.verbose("[GameDatabase] Downgrades not supported, clearing games..");
 
-        execSqlAndLog(database, SQL_DELETE_GAMES);
-        execSqlAndLog(database, SQL_CREATE_GAMES);
+        // The folders table hasn't changed since the first schema version, so the library can be kept.
+        dropGamesTable(database);
+        createGamesTable(database);
     }
 
     @Override
@@ -92,44 +203,98 @@ public final class GameDatabase extends SQLiteOpenHelper {
         Log.info("[GameDatabase] Upgrading database from schema version " + oldVersion + " to " +
                 newVersion);
 
-        // Delete all the games
-        execSqlAndLog(database, SQL_DELETE_GAMES);
-        execSqlAndLog(database, SQL_CREATE_GAMES);
+        if (GameDatabaseMigrations.migrate(database, oldVersion, newVersion)) {
+            return;
+        }
+
+        // The cached games are incompatible with the new schema, delete them all.
+        // The next library scan repopulates the table.
+        dropGamesTable(database);
+        createGamesTable(database);
     }
 
     public void resetDatabase(SQLiteDatabase database) {
         execSqlAndLog(database, SQL_DELETE_FOLDERS);
         execSqlAndLog(database, SQL_CREATE_FOLDERS);
 
-        execSqlAndLog(database, SQL_DELETE_GAMES);
-        execSqlAndLog(database, SQL_CREATE_GAMES);
+        dropGamesTable(database);
+        createGamesTable(database);
+
+        LibrarySnapshot.delete();
+    }
+
+    /**
+     * Synchronously brings the games table in line with the library folders. This may take a
+     * long time on large libraries, so it must not be called on the main thread; use
+     * {@link LibraryScanService#requestScan()} instead.
+     *
+     * @param scope            The changed files or directories to rescan, or null to rescan the
+     *                         whole library.
+     * @param hashContents     Whether to hash the contents of games, so copies and moved files
+     *                         are recognized without parsing them.
+     * @param progressListener Periodically told how far the scan got. The last update is marked
+     *                         as finished and lists the games that were removed.
+     */
+    public void scanLibrary(SQLiteDatabase database, @Nullable Set<String> scope,
+                            boolean hashContents, Consumer<ScanProgress> progressListener) {
+        scanLibrary(database, scope, hashContents, LibraryScanner.NATIVE_METADATA,
+                progressListener);
     }
 
-    public void scanLibrary(SQLiteDatabase database) {
-        // Before scanning known folders, go through the game table and remove any entries for which the file itself is missing.
+    /**
+     * Scans the library like {@link #scanLibrary(SQLiteDatabase, Set, boolean, Consumer)}, but
+     * reads the metadata of games from the given source.
+     */
+    void scanLibrary(SQLiteDatabase database, @Nullable Set<String> scope, boolean hashContents,
+                     LibraryScanner.MetadataSource metadataSource,
+                     Consumer<ScanProgress> progressListener) {
+        long scanStart = SystemClock.elapsedRealtime();
+        ScanRecorder recorder = new ScanRecorder();
+
+        // Remember what every known game looked like, so unchanged files can skip the native loader.
         Cursor fileCursor = database.query(TABLE_NAME_GAMES,
-                null,    // Get all columns.
+                new String[]{KEY_GAME_PATH, KEY_GAME_SIZE, KEY_GAME_LAST_MODIFIED, KEY_GAME_INODE,
+                        KEY_GAME_ICON_SLOT, KEY_GAME_CONTENT_HASH},
                 null,    // Get all rows.
                 null,
                 null,    // No grouping.
                 null,
                 null);    // Order of games is irrelevant.
 
+        Map<String, FileFingerprint> knownGames = new HashMap<>();
+        Map<String, Integer> iconSlots = new HashMap<>();
+        Map<Long, String> knownHashes = new HashMap<>();
+        Set<String> unhashedPaths = new HashSet<>();
+
         // Possibly overly defensive, but ensures that moveToNext() does not skip a row.
         fileCursor.moveToPosition(-1);
 
         while (fileCursor.moveToNext()) {
-            String gamePath = fileCursor.getString(GAME_COLUMN_PATH);
-            File game = new File(gamePath);
-
-            if (!game.exists()) {
-                Log.error("[GameDatabase] Game file no longer exists. Removing from the library: " +
-                        gamePath);
-                database.delete(TABLE_NAME_GAMES,
-                        KEY_DB_ID + " = ?",
-                        new String[]{Long.toString(fileCursor.getLong(COLUMN_DB_ID))});
+            String path = fileCursor.getString(0);
+            knownGames.put(path, FileFingerprint.fromCursor(fileCursor, 1, 2, 3));
+            if (!fileCursor.isNull(4)) {
+                iconSlots.put(path, fileCursor.getInt(4));
             }
+            if (!fileCursor.isNull(5)) {
+                knownHashes.put(fileCursor.getLong(5), path);
+            } else if (!ArchiveGameCache.isArchiveEntry(path)) {
+                unhashedPaths.add(path);
+            }
+        }
+
+        // Known copies are skipped like known games as long as they don't change.
+        Cursor duplicateCursor = database.query(TABLE_NAME_DUPLICATES,
+                new String[]{KEY_GAME_PATH, KEY_GAME_SIZE, KEY_GAME_LAST_MODIFIED, KEY_GAME_INODE},
+                null,    // Get all rows.
+                null,
+                null,    // No grouping.
+                null,
+                null);    // Order of duplicates is irrelevant.
+        while (duplicateCursor.moveToNext()) {
+            knownGames.put(duplicateCursor.getString(0),
+                    FileFingerprint.fromCursor(duplicateCursor, 1, 2, 3));
         }
+        duplicateCursor.close();
 
         // Get a cursor listing all the folders the user has added to the library.
         Cursor folderCursor = database.query(TABLE_NAME_FOLDERS,
@@ -140,8 +305,8 @@ public final class GameDatabase extends SQLiteOpenHelper {
                 null,
                 null);    // Order of folders is irrelevant.
 
-        Set<String> allowedExtensions = new HashSet<>(Arrays.asList(
-            ".3ds", ".3dsx", ".elf", ".axf", ".cci", ".cxi", ".app", ".rar", ".zip", ".7z", ".torrent", ".tar", ".gz"));
+        List<File> folders = new ArrayList<>();
+        List<DocumentTree> documentTrees = new ArrayList<>();
 
         // Possibly overly defensive, but ensures that moveToNext() does not skip a row.
         folderCursor.moveToPosition(-1);
@@ -150,126 +315,192 @@ public final class GameDatabase extends SQLiteOpenHelper {
         while (folderCursor.moveToNext()) {
             String folderPath = folderCursor.getString(FOLDER_COLUMN_PATH);
 
+            // Folders picked through the Storage Access Framework are stored as tree URIs. Their
+            // roots are queried here once, and the scanner walks from what this found.
+            DocumentTree tree = DocumentTree.isDocumentPath(folderPath) ?
+                    DocumentTree.get(folderPath) : null;
             File folder = new File(folderPath);
-            // If the folder is empty because it no longer exists, remove it from the library.
-            if (!folder.exists()) {
+            // If the folder no longer exists, remove it from the library. Its games are not
+            // walked, so they are swept along with the other games the scan doesn't see.
+            if (tree != null ? tree.queryRoot() == null : !folder.exists()) {
                 Log.error(
                         "[GameDatabase] Folder no longer exists. Removing from the library: " + folderPath);
                 database.delete(TABLE_NAME_FOLDERS,
                         KEY_DB_ID + " = ?",
                         new String[]{Long.toString(folderCursor.getLong(COLUMN_DB_ID))});
+                continue;
             }
 
-            addGamesRecursive(database, folder, allowedExtensions, 3);
+            if (tree != null) {
+                documentTrees.add(tree);
+            } else {
+                folders.add(folder);
+            }
         }
 
         fileCursor.close();
         folderCursor.close();
 
-        Arrays.stream(NativeLibrary.GetInstalledGamePaths())
-                .forEach(filePath -> attemptToAddGame(database, filePath));
-
-        database.close();
-    }
+        LibraryScanner scanner = new LibraryScanner(folders, documentTrees, scope, knownGames,
+                hashContents ? knownHashes : null, unhashedPaths, metadataSource, recorder);
+        GameTableWriter writer = new GameTableWriter(database, GameIconAtlas.edit(iconSlots));
+        List<String> removedPaths = Collections.emptyList();
+        // Copies that took the place of a removed game.
+        List<Game> promotedGames = new ArrayList<>();
+        try {
+            scanner.scan(writer, progressListener);
+
+            // Anything the walk didn't come across has been deleted, moved, or left the library.
+            // If the scan was cut short, there is no telling what it missed.
+            if (scanner.isCompleted()) {
+                long sweepStart = System.nanoTime();
+                removedPaths = writer.sweep(scope, promotedGames);
+                recorder.record(ScanReport.Phase.STALE_PURGE, sweepStart, removedPaths.size());
+                for (String gamePath : removedPaths) {
+                    Log.error("[GameDatabase] Game file no longer exists. Removed from the " +
+                            "library: " + gamePath);
+                    if (ArchiveGameCache.isArchiveEntry(gamePath)) {
+                        ArchiveGameCache.remove(gamePath);
+                    }
+                }
+            }
 
-    private static void addGamesRecursive(SQLiteDatabase database, File parent, Set<String> allowedExtensions, int depth) {
-        if (depth <= 0) {
-            return;
+            writer.finish();
+        } finally {
+            writer.close();
         }
 
-        File[] children = parent.listFiles();
-        if (children != null) {
-            for (File file : children) {
-                if (file.isHidden()) {
-                    continue;
-                }
+        progressListener.accept(new ScanProgress(scanner.getFilesVisited(),
+                writer.getWrittenGames(), null, promotedGames, removedPaths, true));
+        ScanReport.save(recorder.finish(scope == null, scanner.getFilesVisited(),
+                writer.getWrittenGames(), removedPaths.size()));
+
+        Log.info("[GameDatabase] " + (scope == null ? "Library" : "Partial library") +
+                " scan finished in " +
+                (SystemClock.elapsedRealtime() - scanStart) + " ms: " +
+                writer.getWrittenGames() + " games written, " +
+                writer.getDeletedGames() + " removed, " +
+                writer.getDuplicateGames() + " duplicates found, " +
+                knownGames.size() + " previously known.");
+    }
 
-                if (file.isDirectory()) {
-                    Set<String> newExtensions = new HashSet<>(Arrays.asList(
-                            ".3ds", ".3dsx", ".elf", ".axf", ".cci", ".cxi", ".app"));
-                    addGamesRecursive(database, file, newExtensions, depth - 1);
-                } else {
-                    String filePath = file.getPath();
-
-                    int extensionStart = filePath.lastIndexOf('.');
-                    if (extensionStart > 0) {
-                        String fileExtension = filePath.substring(extensionStart);
-
-                        // Check that the file has an extension we care about before trying to read out of it.
-                        if (allowedExtensions.contains(fileExtension.toLowerCase())) {
-                            attemptToAddGame(database, filePath);
-                        }
-                    }
-                }
-            }
+    /**
+     * @return The paths of the folders the user has added to the library.
+     */
+    public List<String> getLibraryFolders() {
+        Cursor folderCursor = getReadableDatabase().query(TABLE_NAME_FOLDERS,
+                new String[]{KEY_FOLDER_PATH},
+                null,    // Get all rows.
+                null,
+                null,    // No grouping.
+                null,
+                null);    // Order of folders is irrelevant.
+
+        List<String> folders = new ArrayList<>(folderCursor.getCount());
+        while (folderCursor.moveToNext()) {
+            folders.add(folderCursor.getString(0));
         }
+        folderCursor.close();
+        return folders;
     }
 
-    private static void attemptToAddGame(SQLiteDatabase database, String filePath) {
-        String name = NativeLibrary.GetTitle(filePath);
+    /**
+     * Reads one page of the game list, sorted by title. Pages are found by the last game of the
+     * previous page rather than by an offset, so reading a page costs the same however far into
+     * the library it is.
+     *
+     * @param afterTitle The title of the last game of the previous page, or null for the first
+     *                   page.
+     * @param afterId    The row ID of the last game of the previous page.
+     * @param limit      How many games to read at most.
+     * @return The {@link #GRID_PROJECTION} columns of the games on the page.
+     */
+    public Cursor getGamePage(@Nullable String afterTitle, long afterId, int limit) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (afterTitle != null) {
+            selection = "(" + KEY_GAME_TITLE + SEPARATOR + KEY_DB_ID + ") > (?, ?)";
+            selectionArgs = new String[]{afterTitle, Long.toString(afterId)};
+        }
+
+        return getReadableDatabase().query(TABLE_NAME_GAMES,
+                GRID_PROJECTION,
+                selection,
+                selectionArgs,
+                null,    // No grouping.
+                null,
+                KEY_GAME_TITLE + " ASC" + SEPARATOR + KEY_DB_ID + " ASC",
+                Integer.toString(limit));
+    }
 
-        // If the game's title field is empty, use the filename.
-        if (name.isEmpty()) {
-            name = filePath.substring(filePath.lastIndexOf("/") + 1);
+    /**
+     * Finds the games whose title, company, description or game ID contain words starting with
+     * every word of the given text.
+     *
+     * @return The matching games sorted by title, or null if the text contains no words.
+     */
+    @Nullable
+    public Cursor searchGames(String text) {
+        String matchQuery = toMatchQuery(text);
+        if (matchQuery == null) {
+            return null;
         }
 
-        String gameId = NativeLibrary.GetGameId(filePath);
+        return getReadableDatabase().rawQuery(SQL_SEARCH_GAMES, new String[]{matchQuery});
+    }
 
-        // If the game's ID field is empty, use the filename without extension.
-        if (gameId.isEmpty()) {
-            gameId = filePath.substring(filePath.lastIndexOf("/") + 1,
-                    filePath.lastIndexOf("."));
+    @Nullable
+    private static String toMatchQuery(String text) {
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                // Quoted, so words like "and" or "not" aren't taken for operators.
+                matchQuery.append(matchQuery.length() == 0 ? "" : " ")
+                        .append('"').append(word).append("*\"");
+            }
         }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
 
-        ContentValues game = Game.asContentValues(name,
-                NativeLibrary.GetDescription(filePath).replace("\n", " "),
-                NativeLibrary.GetRegions(filePath),
-                filePath,
-                gameId,
-                NativeLibrary.GetCompany(filePath));
-
-        // Try to update an existing game first.
-        int rowsMatched = database.update(TABLE_NAME_GAMES,    // Which table to update.
-                game,
-                // The values to fill the row with.
-                KEY_GAME_ID + " = ?",
-                // The WHERE clause used to find the right row.
-                new String[]{game.getAsString(
-                        KEY_GAME_ID)});    // The ? in WHERE clause is replaced with this,
-        // which is provided as an array because there
-        // could potentially be more than one argument.
-
-        // If update fails, insert a new game instead.
-        if (rowsMatched == 0) {
-            Log.verbose("[GameDatabase] Adding game: " + game.getAsString(KEY_GAME_TITLE));
-            database.insert(TABLE_NAME_GAMES, null, game);
-        } else {
-            Log.verbose("[GameDatabase] Updated game: " + game.getAsString(KEY_GAME_TITLE));
+    private void createGamesTable(SQLiteDatabase database) {
+        execSqlAndLog(database, SQL_CREATE_GAMES);
+        execSqlAndLog(database, SQL_CREATE_GAMES_PATH_INDEX);
+        execSqlAndLog(database, SQL_CREATE_GAMES_ID_INDEX);
+        execSqlAndLog(database, SQL_CREATE_GAMES_TITLE_INDEX);
+        execSqlAndLog(database, SQL_CREATE_GAMES_HASH_INDEX);
+        execSqlAndLog(database, SQL_CREATE_DUPLICATES);
+        execSqlAndLog(database, SQL_CREATE_DUPLICATES_HASH_INDEX);
+        execSqlAndLog(database, SQL_CREATE_GAMES_GENERATION_INDEX);
+        execSqlAndLog(database, SQL_CREATE_DUPLICATES_GENERATION_INDEX);
+        execSqlAndLog(database, SQL_CREATE_GAMES_FTS);
+        for (String trigger : SQL_CREATE_GAMES_FTS_TRIGGERS) {
+            execSqlAndLog(database, trigger);
         }
     }
 
-    public Observable<Cursor> getGames() {
-        return Observable.create(subscriber ->
-        {
-            Log.info("[GameDatabase] Reading games list...");
-
-            SQLiteDatabase database = getReadableDatabase();
-            Cursor resultCursor = database.query(
-                    TABLE_NAME_GAMES,
-                    null,
-                    null,
-                    null,
-                    null,
-                    null,
-                    KEY_GAME_TITLE + " ASC"
-            );
-
-            // Pass the result cursor to the consumer.
-            subscriber.onNext(resultCursor);
-
-            // Tell the consumer we're done; it will unsubscribe implicitly.
-            subscriber.onComplete();
-        });
+    private void dropGamesTable(SQLiteDatabase database) {
+        // Dropping the games table drops its triggers along with it.
+        execSqlAndLog(database, SQL_DELETE_GAMES);
+        execSqlAndLog(database, SQL_DELETE_GAMES_FTS);
+        execSqlAndLog(database, SQL_DELETE_DUPLICATES);
+    }
+
+    /**
+     * @param indexRow Whether the trigger adds the new row to the index, rather than removing
+     *                 the old one.
+     */
+    private static String createFtsTrigger(String name, String event, boolean indexRow) {
+        String row = indexRow ? "new." : "old.";
+        String action = indexRow
+                ? "INSERT INTO " + TABLE_NAME_GAMES_FTS + "(docid, " + KEY_GAME_TITLE + SEPARATOR
+                + KEY_GAME_COMPANY + SEPARATOR + KEY_GAME_DESCRIPTION + SEPARATOR + KEY_GAME_ID
+                + ") VALUES(" + row + KEY_DB_ID + SEPARATOR + row + KEY_GAME_TITLE + SEPARATOR
+                + row + KEY_GAME_COMPANY + SEPARATOR + row + KEY_GAME_DESCRIPTION + SEPARATOR
+                + row + KEY_GAME_ID + ")"
+                : "DELETE FROM " + TABLE_NAME_GAMES_FTS + " WHERE docid = " + row + KEY_DB_ID;
+
+        return "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME_GAMES_FTS + "_" + name + " " + event
+                + " ON " + TABLE_NAME_GAMES + " BEGIN " + action + "; END";
     }
 
     private void execSqlAndLog(SQLiteDatabase database, String sql) {
@@ -0,0 +1,141 @@
+package org.citra.citra_emu.model;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import org.citra.citra_emu.utils.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The schema changes that bring an existing games.db up to date without throwing away the
+ * cached game metadata. Each migration upgrades the schema by exactly one version. A database
+ * for which no chain of migrations exists has to be rebuilt, and its games rescanned.
+ */
+final class GameDatabaseMigrations {
+    private static final class Migration {
+        final int startVersion;
+        final int endVersion;
+        final String[] statements;
+
+        Migration(int startVersion, int endVersion, String... statements) {
+            this.startVersion = startVersion;
+            this.endVersion = endVersion;
+            this.statements = statements;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+            // File fingerprints, so unchanged files can be skipped by a rescan.
+            new Migration(2, 3,
+                    "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES
+                            + " ADD COLUMN " + GameDatabase.KEY_GAME_SIZE + " INTEGER",
+                    "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES
+                            + " ADD COLUMN " + GameDatabase.KEY_GAME_LAST_MODIFIED + " INTEGER",
+                    "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES
+                            + " ADD COLUMN " + GameDatabase.KEY_GAME_INODE + " INTEGER"),
+            // Unique indexes on path and game ID. Only the most recently inserted row for each
+            // path or game ID is kept, so the indexes can be built.
+            new Migration(3, 4,
+                    "DELETE FROM " + GameDatabase.TABLE_NAME_GAMES
+                            + " WHERE " + GameDatabase.KEY_DB_ID + " NOT IN (SELECT MAX("
+                            + GameDatabase.KEY_DB_ID + ") FROM " + GameDatabase.TABLE_NAME_GAMES
+                            + " GROUP BY " + GameDatabase.KEY_GAME_PATH + ")",
+                    "DELETE FROM " + GameDatabase.TABLE_NAME_GAMES
+                            + " WHERE " + GameDatabase.KEY_DB_ID + " NOT IN (SELECT MAX("
+                            + GameDatabase.KEY_DB_ID + ") FROM " + GameDatabase.TABLE_NAME_GAMES
+                            + " GROUP BY " + GameDatabase.KEY_GAME_ID + ")",
+                    GameDatabase.SQL_CREATE_GAMES_PATH_INDEX,
+                    GameDatabase.SQL_CREATE_GAMES_ID_INDEX),
+            // Icon atlas slots. Forgetting the file sizes makes the next scan read every game
+            // again, which puts their icons into the atlas.
+            new Migration(4, 5,
+                    "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES
+                            + " ADD COLUMN " + GameDatabase.KEY_GAME_ICON_SLOT + " INTEGER",
+                    "UPDATE " + GameDatabase.TABLE_NAME_GAMES
+                            + " SET " + GameDatabase.KEY_GAME_SIZE + " = NULL"),
+            // Full-text search, indexing the games that are already known.
+            new Migration(5, 6, concat(
+                    new String[]{GameDatabase.SQL_CREATE_GAMES_FTS},
+                    GameDatabase.SQL_CREATE_GAMES_FTS_TRIGGERS,
+                    new String[]{GameDatabase.SQL_REBUILD_GAMES_FTS})),
+            // Paging the game list by title.
+            new Migration(6, 7, GameDatabase.SQL_CREATE_GAMES_TITLE_INDEX),
+            // Content hashes and duplicate copies of games. Stored games are hashed by the next
+            // scan.
+            new Migration(7, 8,
+                    "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES
+                            + " ADD COLUMN " + GameDatabase.KEY_GAME_CONTENT_HASH + " INTEGER",
+                    GameDatabase.SQL_CREATE_GAMES_HASH_INDEX,
+                    GameDatabase.SQL_CREATE_DUPLICATES,
+                    GameDatabase.SQL_CREATE_DUPLICATES_HASH_INDEX),
+            // Scan generations, for sweeping the games a scan didn't see. Every row starts out
+            // older than the next scan. The index triggers are recreated to ignore updates that
+            // leave the indexed columns alone.
+            new Migration(8, 9, concat(
+                    new String[]{
+                            "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES + " ADD COLUMN "
+                                    + GameDatabase.KEY_GAME_SCAN_GENERATION
+                                    + " INTEGER NOT NULL DEFAULT 0",
+                            "ALTER TABLE " + GameDatabase.TABLE_NAME_DUPLICATES + " ADD COLUMN "
+                                    + GameDatabase.KEY_GAME_SCAN_GENERATION
+                                    + " INTEGER NOT NULL DEFAULT 0",
+                            GameDatabase.SQL_CREATE_GAMES_GENERATION_INDEX,
+                            GameDatabase.SQL_CREATE_DUPLICATES_GENERATION_INDEX},
+                    GameDatabase.SQL_DROP_GAMES_FTS_UPDATE_TRIGGERS,
+                    GameDatabase.SQL_CREATE_GAMES_FTS_TRIGGERS)),
+            // Display names of games picked through the Storage Access Framework. No document
+            // has a negative size, so the next scan parses the stored ones again to fill theirs.
+            new Migration(9, 10,
+                    "ALTER TABLE " + GameDatabase.TABLE_NAME_GAMES
+                            + " ADD COLUMN " + GameDatabase.KEY_GAME_FILE_NAME + " TEXT",
+                    "UPDATE " + GameDatabase.TABLE_NAME_GAMES + " SET " + GameDatabase.KEY_GAME_SIZE
+                            + " = -1 WHERE " + GameDatabase.KEY_GAME_PATH + " LIKE 'content://%'")
+    );
+
+    private GameDatabaseMigrations() {
+        // Disallows instantiation.
+    }
+
+    /**
+     * Runs every migration between the two versions, in order.
+     *
+     * @return false if the database can't be migrated and has to be rebuilt instead.
+     */
+    static boolean migrate(SQLiteDatabase database, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            Migration migration = findMigration(version);
+            if (migration == null) {
+                Log.warning("[GameDatabaseMigrations] No migration from schema version " + version);
+                return false;
+            }
+
+            try {
+                for (String statement : migration.statements) {
+                    Log.verbose("[GameDatabaseMigrations] Executing SQL: " + statement);
+                    database.execSQL(statement);
+                }
+            } catch (SQLiteException e) {
+                Log.error("[GameDatabaseMigrations] Migration from schema version " +
+                        migration.startVersion + " to " + migration.endVersion + " failed: " + e);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String[] concat(String[]... statements) {
+        return Arrays.stream(statements).flatMap(Arrays::stream).toArray(String[]::new);
+    }
+
+    private static Migration findMigration(int startVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.startVersion == startVersion) {
+                return migration;
+            }
+        }
+        return null;
+    }
+}
@@ -1,36 +1,85 @@
 package org.citra.citra_emu.model;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.citra.citra_emu.BuildConfig;
 import org.citra.citra_emu.utils.Log;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * Provides an interface allowing Activities to interact with the SQLite database.
  * CRUD methods in this class can be called by Activities using getContentResolver().
+ * <p>
+ * Single rows are addressed by appending their ID to the folders or games URI. Changes are
+ * announced on the URIs of the rows they touched, or on the table's URI if they weren't
+ * addressed by ID, so observers can refresh only what changed. Bulk inserts and batches run in
+ * one transaction, and announce their changes once it has been committed.
  */
 public final class GameProvider extends ContentProvider {
     public static final String REFRESH_LIBRARY = "refresh";
     public static final String RESET_LIBRARY = "reset";
+    public static final String SEARCH_GAMES = "search";
+    public static final String QUERY_PARAMETER_SEARCH_TEXT = "text";
+    // Page through the games table, see GameDatabase#getGamePage.
+    public static final String QUERY_PARAMETER_AFTER_TITLE = "after_title";
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
 
-    public static final String AUTHORITY = "content://" + BuildConfig.APPLICATION_ID + ".provider";
+    private static final String AUTHORITY_NAME = BuildConfig.APPLICATION_ID + ".provider";
+    public static final String AUTHORITY = "content://" + AUTHORITY_NAME;
     public static final Uri URI_FOLDER =
             Uri.parse(AUTHORITY + "/" + GameDatabase.TABLE_NAME_FOLDERS + "/");
+    public static final Uri URI_GAMES =
+            Uri.parse(AUTHORITY + "/" + GameDatabase.TABLE_NAME_GAMES + "/");
     public static final Uri URI_REFRESH = Uri.parse(AUTHORITY + "/" + REFRESH_LIBRARY + "/");
     public static final Uri URI_RESET = Uri.parse(AUTHORITY + "/" + RESET_LIBRARY + "/");
+    public static final Uri URI_SEARCH = Uri.parse(AUTHORITY + "/" + SEARCH_GAMES + "/");
 
     public static final String MIME_TYPE_FOLDER = "vnd.android.cursor.item/vnd.dolphin.folder";
     public static final String MIME_TYPE_GAME = "vnd.android.cursor.item/vnd.dolphin.game";
 
+    private static final int MATCH_FOLDERS = 1;
+    private static final int MATCH_FOLDER = 2;
+    private static final int MATCH_GAMES = 3;
+    private static final int MATCH_GAME = 4;
+    private static final int MATCH_SEARCH = 5;
+    private static final int MATCH_REFRESH = 6;
+    private static final int MATCH_RESET = 7;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        sUriMatcher.addURI(AUTHORITY_NAME, GameDatabase.TABLE_NAME_FOLDERS, MATCH_FOLDERS);
+        sUriMatcher.addURI(AUTHORITY_NAME, GameDatabase.TABLE_NAME_FOLDERS + "/#", MATCH_FOLDER);
+        sUriMatcher.addURI(AUTHORITY_NAME, GameDatabase.TABLE_NAME_GAMES, MATCH_GAMES);
+        sUriMatcher.addURI(AUTHORITY_NAME, GameDatabase.TABLE_NAME_GAMES + "/#", MATCH_GAME);
+        sUriMatcher.addURI(AUTHORITY_NAME, SEARCH_GAMES, MATCH_SEARCH);
+        sUriMatcher.addURI(AUTHORITY_NAME, REFRESH_LIBRARY, MATCH_REFRESH);
+        sUriMatcher.addURI(AUTHORITY_NAME, RESET_LIBRARY, MATCH_RESET);
+    }
 
     private GameDatabase mDbHelper;
 
+    // The changes made by the transaction the calling thread is running, announced once it has
+    // been committed. Null outside of transactions.
+    private final ThreadLocal<Changes> mTransactionChanges = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
         Log.info("[GameProvider] Creating Content Provider...");
@@ -47,14 +96,35 @@ public final class GameProvider extends ContentProvider {
 
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
-        String table = uri.getLastPathSegment();
-
-        if (table == null) {
-            Log.error("[GameProvider] Badly formatted URI: " + uri);
-            return null;
+        Cursor cursor;
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_SEARCH:
+                String text = uri.getQueryParameter(QUERY_PARAMETER_SEARCH_TEXT);
+                cursor = mDbHelper.searchGames(text != null ? text : "");
+                if (cursor == null) {
+                    Log.debug("[GameProvider] Search without any words: " + uri);
+                    return null;
+                }
+                break;
+            case MATCH_GAMES:
+                if (uri.getQueryParameter(QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryGamePage(uri);
+                    if (cursor == null) {
+                        return null;
+                    }
+                    break;
+                }
+                // Otherwise, a plain query of the table.
+            case MATCH_FOLDERS:
+            case MATCH_FOLDER:
+            case MATCH_GAME:
+                cursor = db.query(getTable(uri), projection, withRowSelection(uri, selection),
+                        withRowSelectionArgs(uri, selectionArgs), null, null, sortOrder);
+                break;
+            default:
+                Log.error("[GameProvider] Badly formatted URI: " + uri);
+                return null;
         }
-
-        Cursor cursor = db.query(table, projection, selection, selectionArgs, null, null, sortOrder);
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
         return cursor;
@@ -63,17 +133,14 @@ public final class GameProvider extends ContentProvider {
     @Override
     public String getType(@NonNull Uri uri) {
         Log.verbose("[GameProvider] Getting MIME type for URI: " + uri);
-        String lastSegment = uri.getLastPathSegment();
-
-        if (lastSegment == null) {
-            Log.error("[GameProvider] Badly formatted URI: " + uri);
-            return null;
-        }
 
-        if (lastSegment.equals(GameDatabase.TABLE_NAME_FOLDERS)) {
-            return MIME_TYPE_FOLDER;
-        } else if (lastSegment.equals(GameDatabase.TABLE_NAME_GAMES)) {
-            return MIME_TYPE_GAME;
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_FOLDERS:
+            case MATCH_FOLDER:
+                return MIME_TYPE_FOLDER;
+            case MATCH_GAMES:
+            case MATCH_GAME:
+                return MIME_TYPE_GAME;
         }
 
         Log.error("[GameProvider] Unknown MIME type for URI: " + uri);
@@ -84,55 +151,262 @@ public final class GameProvider extends ContentProvider {
     public Uri insert(@NonNull Uri uri, ContentValues values) {
         Log.info("[GameProvider] Inserting row at URI: " + uri);
 
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        String table = uri.getLastPathSegment();
-
-        if (table != null) {
-            if (table.equals(RESET_LIBRARY)) {
-                mDbHelper.resetDatabase(database);
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+            case MATCH_RESET:
+                mDbHelper.resetDatabase(mDbHelper.getWritableDatabase());
                 return uri;
-            }
-            if (table.equals(REFRESH_LIBRARY)) {
+            case MATCH_REFRESH:
                 Log.info(
                         "[GameProvider] URI specified table REFRESH_LIBRARY. No insertion necessary; refreshing library contents...");
-                mDbHelper.scanLibrary(database);
+                LibraryScanService.requestRefresh();
                 return uri;
-            }
+            case MATCH_FOLDERS:
+            case MATCH_GAMES:
+                break;
+            default:
+                Log.error("[GameProvider] Badly formatted URI: " + uri);
+                return uri;
+        }
 
-            long id = database.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        Uri rowUri = insertRow(uri, match, values);
+        return rowUri != null ? rowUri : uri;
+    }
 
-            // If insertion was successful...
-            if (id > 0) {
-                // If we just added a folder, add its contents to the game list.
-                if (table.equals(GameDatabase.TABLE_NAME_FOLDERS)) {
-                    mDbHelper.scanLibrary(database);
-                }
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        Log.info("[GameProvider] Inserting " + values.length + " rows at URI: " + uri);
 
-                // Notify the UI that its contents should be refreshed.
-                getContext().getContentResolver().notifyChange(uri, null);
-                uri = Uri.withAppendedPath(uri, Long.toString(id));
-            } else {
-                Log.error("[GameProvider] Row already exists: " + uri + " id: " + id);
-            }
-        } else {
+        int match = sUriMatcher.match(uri);
+        if (match != MATCH_FOLDERS && match != MATCH_GAMES) {
             Log.error("[GameProvider] Badly formatted URI: " + uri);
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean outermost = beginTransaction(database);
+        boolean successful = false;
+        int insertedRows = 0;
+        try {
+            for (ContentValues row : values) {
+                if (insertRow(uri, match, row) != null) {
+                    insertedRows++;
+                }
+            }
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(database, outermost, successful);
         }
+        return insertedRows;
+    }
 
-        database.close();
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        Log.info("[GameProvider] Applying a batch of " + operations.size() + " operations");
 
-        return uri;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean outermost = beginTransaction(database);
+        boolean successful = false;
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            endTransaction(database, outermost, successful);
+        }
     }
 
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
-        Log.error("[GameProvider] Delete operations unsupported. URI: " + uri);
-        return 0;
+        Log.info("[GameProvider] Deleting rows at URI: " + uri);
+
+        int match = sUriMatcher.match(uri);
+        if (match != MATCH_FOLDERS && match != MATCH_FOLDER && match != MATCH_GAMES &&
+                match != MATCH_GAME) {
+            Log.error("[GameProvider] Badly formatted URI: " + uri);
+            return 0;
+        }
+
+        int deletedRows = mDbHelper.getWritableDatabase().delete(getTable(uri),
+                withRowSelection(uri, selection), withRowSelectionArgs(uri, selectionArgs));
+        if (deletedRows > 0) {
+            Changes changes = beginChanges();
+            changes.uris.add(uri);
+
+            // The games of removed folders leave the library with the next full scan.
+            changes.fullScan |= match == MATCH_FOLDERS || match == MATCH_FOLDER;
+            endChanges(changes);
+        }
+        return deletedRows;
     }
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection,
                       String[] selectionArgs) {
-        Log.error("[GameProvider] Update operations unsupported. URI: " + uri);
-        return 0;
+        Log.info("[GameProvider] Updating rows at URI: " + uri);
+
+        int match = sUriMatcher.match(uri);
+        if (match != MATCH_FOLDERS && match != MATCH_FOLDER && match != MATCH_GAMES &&
+                match != MATCH_GAME) {
+            Log.error("[GameProvider] Badly formatted URI: " + uri);
+            return 0;
+        }
+
+        int updatedRows = mDbHelper.getWritableDatabase().update(getTable(uri), values,
+                withRowSelection(uri, selection), withRowSelectionArgs(uri, selectionArgs));
+        if (updatedRows > 0) {
+            Changes changes = beginChanges();
+            changes.uris.add(uri);
+
+            // A folder that moved has to be scanned at its new path, and its old games removed.
+            changes.fullScan |= match == MATCH_FOLDERS || match == MATCH_FOLDER;
+            endChanges(changes);
+        }
+        return updatedRows;
+    }
+
+    /**
+     * @return The URI of the new row, or null if it already existed.
+     */
+    @Nullable
+    private Uri insertRow(Uri uri, int match, ContentValues values) {
+        long id = mDbHelper.getWritableDatabase().insertWithOnConflict(getTable(uri), null,
+                values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (id <= 0) {
+            Log.error("[GameProvider] Row already exists: " + uri + " id: " + id);
+            return null;
+        }
+
+        Uri rowUri = ContentUris.withAppendedId(uri, id);
+        Changes changes = beginChanges();
+
+        // If we just added a folder, add its contents to the game list.
+        if (match == MATCH_FOLDERS) {
+            changes.scanPaths.add(values.getAsString(GameDatabase.KEY_FOLDER_PATH));
+        }
+
+        // Notify the UI that the new row should be shown.
+        changes.uris.add(rowUri);
+        endChanges(changes);
+        return rowUri;
+    }
+
+    @Nullable
+    private Cursor queryGamePage(Uri uri) {
+        String afterId = uri.getQueryParameter(QUERY_PARAMETER_AFTER_ID);
+        try {
+            return mDbHelper.getGamePage(uri.getQueryParameter(QUERY_PARAMETER_AFTER_TITLE),
+                    afterId != null ? Long.parseLong(afterId) : 0,
+                    Integer.parseInt(uri.getQueryParameter(QUERY_PARAMETER_LIMIT)));
+        } catch (NumberFormatException e) {
+            Log.error("[GameProvider] Badly formatted page: " + uri);
+            return null;
+        }
+    }
+
+    private static String getTable(Uri uri) {
+        return uri.getPathSegments().get(0);
+    }
+
+    /**
+     * @return The selection, narrowed down to the row the URI points to if it has an ID.
+     */
+    private static String withRowSelection(Uri uri, String selection) {
+        if (!isRowUri(uri)) {
+            return selection;
+        }
+
+        String rowSelection = GameDatabase.KEY_DB_ID + " = ?";
+        return TextUtils.isEmpty(selection) ? rowSelection :
+                rowSelection + " AND (" + selection + ")";
+    }
+
+    private static String[] withRowSelectionArgs(Uri uri, String[] selectionArgs) {
+        if (!isRowUri(uri)) {
+            return selectionArgs;
+        }
+
+        String[] rowSelectionArgs =
+                new String[1 + (selectionArgs != null ? selectionArgs.length : 0)];
+        rowSelectionArgs[0] = uri.getLastPathSegment();
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, rowSelectionArgs, 1, selectionArgs.length);
+        }
+        return rowSelectionArgs;
+    }
+
+    private static boolean isRowUri(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        return match == MATCH_FOLDER || match == MATCH_GAME;
+    }
+
+    /**
+     * @return Whether this is the outermost transaction. Batches may be nested, as bulkInsert is
+     * itself an operation applyBatch can run.
+     */
+    private boolean beginTransaction(SQLiteDatabase database) {
+        database.beginTransaction();
+        if (mTransactionChanges.get() != null) {
+            return false;
+        }
+
+        mTransactionChanges.set(new Changes());
+        return true;
+    }
+
+    private void endTransaction(SQLiteDatabase database, boolean outermost, boolean successful) {
+        database.endTransaction();
+        if (outermost) {
+            Changes changes = mTransactionChanges.get();
+            mTransactionChanges.remove();
+
+            // Nothing changed if the transaction was rolled back.
+            if (successful) {
+                announce(changes);
+            }
+        }
+    }
+
+    /**
+     * @return Where to record the changes of a single operation: the running transaction's, or
+     * ones that are announced right away by {@link #endChanges}.
+     */
+    private Changes beginChanges() {
+        Changes changes = mTransactionChanges.get();
+        return changes != null ? changes : new Changes();
+    }
+
+    private void endChanges(Changes changes) {
+        if (changes != mTransactionChanges.get()) {
+            announce(changes);
+        }
+    }
+
+    private void announce(Changes changes) {
+        for (Uri uri : changes.uris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        if (changes.fullScan) {
+            LibraryScanService.requestScan();
+        } else if (!changes.scanPaths.isEmpty()) {
+            // Only the new folders need to be walked.
+            LibraryScanService.requestScan(changes.scanPaths);
+        }
+    }
+
+    /**
+     * What a write changed, to be announced once it is visible to other connections. A scan
+     * started any earlier wouldn't see the new folders yet.
+     */
+    private static final class Changes {
+        final Set<Uri> uris = new LinkedHashSet<>();
+        final Set<String> scanPaths = new LinkedHashSet<>();
+        boolean fullScan;
     }
 }
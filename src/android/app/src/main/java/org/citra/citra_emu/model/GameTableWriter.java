@@ -0,0 +1,510 @@
+package org.citra.citra_emu.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.utils.ArchiveGameCache;
+import org.citra.citra_emu.utils.GameIconAtlas;
+import org.citra.citra_emu.utils.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes scan results into the games table through pre-compiled statements. Writes are grouped
+ * into transactions of {@link #GAMES_PER_TRANSACTION} rows, so a scan pays for one journal sync
+ * per batch instead of one per game, while readers still see progress as each batch commits.
+ * <p>
+ * Games are keyed by their game ID. On SQLite 3.24 and newer (Android 11+) a game is written with
+ * a single INSERT ... ON CONFLICT DO UPDATE; older versions fall back to an UPDATE followed by an
+ * INSERT, both of which are served by the unique indexes on the games table.
+ * <p>
+ * Further copies of a game already in the table are kept in the duplicates table instead. When
+ * the copy in the games table goes away, one of them takes its place.
+ * <p>
+ * Every row the scan writes or comes across is stamped with the scan's generation. Once the scan
+ * is done, {@link #sweep} removes the rows in scope that still carry an older one, so pruning
+ * reads only the rows that are removed.
+ */
+final class GameTableWriter implements LibraryScanner.GameWriter {
+    private static final int GAMES_PER_TRANSACTION = 100;
+    private static final int[] MIN_UPSERT_SQLITE_VERSION = {3, 24};
+
+    // Every column written by a scan except the game ID, which keys the update.
+    private static final String[] COLUMNS = {
+            GameDatabase.KEY_GAME_PATH,
+            GameDatabase.KEY_GAME_TITLE,
+            GameDatabase.KEY_GAME_DESCRIPTION,
+            GameDatabase.KEY_GAME_REGIONS,
+            GameDatabase.KEY_GAME_COMPANY,
+            GameDatabase.KEY_GAME_SIZE,
+            GameDatabase.KEY_GAME_LAST_MODIFIED,
+            GameDatabase.KEY_GAME_INODE,
+            GameDatabase.KEY_GAME_ICON_SLOT,
+            GameDatabase.KEY_GAME_CONTENT_HASH,
+            GameDatabase.KEY_GAME_SCAN_GENERATION,
+            GameDatabase.KEY_GAME_FILE_NAME
+    };
+
+    private static final String SQL_FIND_DUPLICATE = "SELECT d." + GameDatabase.KEY_GAME_PATH
+            + ", d." + GameDatabase.KEY_GAME_SIZE + ", d." + GameDatabase.KEY_GAME_LAST_MODIFIED
+            + ", d." + GameDatabase.KEY_GAME_INODE
+            + " FROM " + GameDatabase.TABLE_NAME_DUPLICATES + " d JOIN "
+            + GameDatabase.TABLE_NAME_GAMES + " g ON d." + GameDatabase.KEY_GAME_CONTENT_HASH
+            + " = g." + GameDatabase.KEY_GAME_CONTENT_HASH
+            + " WHERE g." + GameDatabase.KEY_GAME_PATH + " = ? LIMIT 1";
+
+    private final SQLiteDatabase mDatabase;
+    @Nullable
+    private final SQLiteStatement mUpsertGame;
+    @Nullable
+    private final SQLiteStatement mUpdateGame;
+    @Nullable
+    private final SQLiteStatement mInsertGame;
+    private final SQLiteStatement mDeleteGame;
+    private final SQLiteStatement mMoveGame;
+    private final SQLiteStatement mSetContentHash;
+    private final SQLiteStatement mWriteDuplicate;
+    private final SQLiteStatement mDeleteDuplicate;
+    private final SQLiteStatement mMarkGame;
+    private final SQLiteStatement mMarkDuplicate;
+    private final GameIconAtlas.Editor mIcons;
+    private final long mScanGeneration;
+
+    private int mPendingWrites = 0;
+    private boolean mFinished = false;
+    private int mWrittenGames = 0;
+    private int mDeletedGames = 0;
+    private int mDuplicateGames = 0;
+
+    GameTableWriter(SQLiteDatabase database, GameIconAtlas.Editor icons) {
+        mDatabase = database;
+        mIcons = icons;
+        mScanGeneration = Math.max(
+                getScanGeneration(database, GameDatabase.TABLE_NAME_GAMES),
+                getScanGeneration(database, GameDatabase.TABLE_NAME_DUPLICATES)) + 1;
+
+        String insertGame = "INSERT INTO " + GameDatabase.TABLE_NAME_GAMES
+                + " (" + String.join(", ", COLUMNS) + ", " + GameDatabase.KEY_GAME_ID + ")"
+                + " VALUES (" + String.join(", ", Collections.nCopies(COLUMNS.length + 1, "?")) + ")";
+
+        if (supportsUpsert(database)) {
+            StringBuilder upsertGame = new StringBuilder(insertGame)
+                    .append(" ON CONFLICT(").append(GameDatabase.KEY_GAME_ID).append(") DO UPDATE SET ");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                upsertGame.append(i == 0 ? "" : ", ")
+                        .append(COLUMNS[i]).append(" = excluded.").append(COLUMNS[i]);
+            }
+
+            mUpsertGame = database.compileStatement(upsertGame.toString());
+            mUpdateGame = null;
+            mInsertGame = null;
+        } else {
+            mUpsertGame = null;
+            mUpdateGame = database.compileStatement("UPDATE " + GameDatabase.TABLE_NAME_GAMES
+                    + " SET " + String.join(" = ?, ", COLUMNS) + " = ?"
+                    + " WHERE " + GameDatabase.KEY_GAME_ID + " = ?");
+            mInsertGame = database.compileStatement(insertGame);
+        }
+        mDeleteGame = database.compileStatement("DELETE FROM " + GameDatabase.TABLE_NAME_GAMES
+                + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?");
+        mMoveGame = database.compileStatement("UPDATE " + GameDatabase.TABLE_NAME_GAMES
+                + " SET " + GameDatabase.KEY_GAME_PATH + " = ?, " + GameDatabase.KEY_GAME_SIZE
+                + " = ?, " + GameDatabase.KEY_GAME_LAST_MODIFIED + " = ?, "
+                + GameDatabase.KEY_GAME_INODE + " = ?, "
+                + GameDatabase.KEY_GAME_SCAN_GENERATION + " = ?, "
+                + GameDatabase.KEY_GAME_FILE_NAME + " = ?"
+                + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?");
+        mSetContentHash = database.compileStatement("UPDATE " + GameDatabase.TABLE_NAME_GAMES
+                + " SET " + GameDatabase.KEY_GAME_CONTENT_HASH + " = ?"
+                + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?");
+        mWriteDuplicate = database.compileStatement("INSERT OR REPLACE INTO "
+                + GameDatabase.TABLE_NAME_DUPLICATES + " (" + GameDatabase.KEY_GAME_PATH + ", "
+                + GameDatabase.KEY_GAME_CONTENT_HASH + ", " + GameDatabase.KEY_GAME_SIZE + ", "
+                + GameDatabase.KEY_GAME_LAST_MODIFIED + ", " + GameDatabase.KEY_GAME_INODE + ", "
+                + GameDatabase.KEY_GAME_SCAN_GENERATION + ")"
+                + " VALUES (?, ?, ?, ?, ?, ?)");
+        mDeleteDuplicate = database.compileStatement("DELETE FROM "
+                + GameDatabase.TABLE_NAME_DUPLICATES
+                + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?");
+        mMarkGame = database.compileStatement("UPDATE " + GameDatabase.TABLE_NAME_GAMES
+                + " SET " + GameDatabase.KEY_GAME_SCAN_GENERATION + " = ?"
+                + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?");
+        mMarkDuplicate = database.compileStatement("UPDATE " + GameDatabase.TABLE_NAME_DUPLICATES
+                + " SET " + GameDatabase.KEY_GAME_SCAN_GENERATION + " = ?"
+                + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?");
+
+        mDatabase.beginTransaction();
+    }
+
+    /**
+     * Also stores the game's icon, if the scan found one, and records its atlas slot in the
+     * game's values.
+     */
+    @Override
+    public void write(ContentValues game, @Nullable ByteBuffer icon) {
+        String path = game.getAsString(GameDatabase.KEY_GAME_PATH);
+
+        int iconSlot = GameIconAtlas.NO_SLOT;
+        if (icon != null) {
+            iconSlot = mIcons.put(path, icon);
+        } else {
+            mIcons.remove(path);
+        }
+        if (iconSlot != GameIconAtlas.NO_SLOT) {
+            game.put(GameDatabase.KEY_GAME_ICON_SLOT, iconSlot);
+        } else {
+            game.putNull(GameDatabase.KEY_GAME_ICON_SLOT);
+        }
+        game.put(GameDatabase.KEY_GAME_SCAN_GENERATION, mScanGeneration);
+
+        try {
+            writeGame(game);
+        } catch (SQLiteConstraintException e) {
+            // A different game used to live at this path; the new one replaces it.
+            deleteRow(path);
+            writeGame(game);
+        }
+
+        // The file may have been a copy of another game before.
+        deleteDuplicate(path);
+
+        mWrittenGames++;
+        onRowWritten();
+    }
+
+    /**
+     * Records a copy of a game that is already in the games table under another path.
+     *
+     * @param game The copy's path, fingerprint and content hash.
+     */
+    @Override
+    public void writeDuplicate(ContentValues game) {
+        String path = game.getAsString(GameDatabase.KEY_GAME_PATH);
+
+        // The file may have held a different game before.
+        mIcons.remove(path);
+        deleteRow(path);
+
+        mWriteDuplicate.clearBindings();
+        mWriteDuplicate.bindString(1, path);
+        mWriteDuplicate.bindLong(2, game.getAsLong(GameDatabase.KEY_GAME_CONTENT_HASH));
+        mWriteDuplicate.bindLong(3, game.getAsLong(GameDatabase.KEY_GAME_SIZE));
+        mWriteDuplicate.bindLong(4, game.getAsLong(GameDatabase.KEY_GAME_LAST_MODIFIED));
+        mWriteDuplicate.bindLong(5, game.getAsLong(GameDatabase.KEY_GAME_INODE));
+        mWriteDuplicate.bindLong(6, mScanGeneration);
+        mWriteDuplicate.executeInsert();
+
+        mDuplicateGames++;
+        onRowWritten();
+    }
+
+    /**
+     * Points the game stored for one path at another, keeping its metadata and icon. If there is
+     * no game at the old path anymore, the new path is recorded as a duplicate instead.
+     *
+     * @param game The new path and its fingerprint and content hash, and its display name if it
+     *             is a document.
+     * @return The moved game, or null if it was recorded as a duplicate.
+     */
+    @Nullable
+    @Override
+    public Game move(String oldPath, ContentValues game) {
+        String path = game.getAsString(GameDatabase.KEY_GAME_PATH);
+
+        mMoveGame.bindString(1, path);
+        mMoveGame.bindLong(2, game.getAsLong(GameDatabase.KEY_GAME_SIZE));
+        mMoveGame.bindLong(3, game.getAsLong(GameDatabase.KEY_GAME_LAST_MODIFIED));
+        mMoveGame.bindLong(4, game.getAsLong(GameDatabase.KEY_GAME_INODE));
+        mMoveGame.bindLong(5, mScanGeneration);
+        String fileName = game.getAsString(GameDatabase.KEY_GAME_FILE_NAME);
+        if (fileName != null) {
+            mMoveGame.bindString(6, fileName);
+        } else {
+            mMoveGame.bindNull(6);
+        }
+        mMoveGame.bindString(7, oldPath);
+        if (mMoveGame.executeUpdateDelete() == 0) {
+            // Another copy took its place first.
+            writeDuplicate(game);
+            return null;
+        }
+
+        Log.verbose("[GameTableWriter] Moved game from " + oldPath + " to " + path);
+        mIcons.rename(oldPath, path);
+        deleteDuplicate(path);
+        mWrittenGames++;
+        onRowWritten();
+        return readGame(path);
+    }
+
+    @Override
+    public void setContentHash(String path, long contentHash) {
+        mSetContentHash.bindLong(1, contentHash);
+        mSetContentHash.bindString(2, path);
+        mSetContentHash.executeUpdateDelete();
+        onRowWritten();
+    }
+
+    /**
+     * Stamps the row with this scan's generation. Nothing readers can see changes, so this doesn't
+     * count towards a batch.
+     */
+    @Override
+    public void markSeen(String path) {
+        mMarkGame.bindLong(1, mScanGeneration);
+        mMarkGame.bindString(2, path);
+        if (mMarkGame.executeUpdateDelete() == 0) {
+            mMarkDuplicate.bindLong(1, mScanGeneration);
+            mMarkDuplicate.bindString(2, path);
+            mMarkDuplicate.executeUpdateDelete();
+        }
+    }
+
+    private void writeGame(ContentValues game) {
+        if (mUpsertGame != null) {
+            bindGame(mUpsertGame, game);
+            mUpsertGame.executeInsert();
+            Log.verbose("[GameTableWriter] Wrote game: " + game.getAsString(GameDatabase.KEY_GAME_TITLE));
+            return;
+        }
+
+        // Try to update an existing game first.
+        bindGame(mUpdateGame, game);
+
+        // If update fails, insert a new game instead.
+        if (mUpdateGame.executeUpdateDelete() == 0) {
+            Log.verbose("[GameTableWriter] Adding game: " + game.getAsString(GameDatabase.KEY_GAME_TITLE));
+            bindGame(mInsertGame, game);
+            mInsertGame.executeInsert();
+        } else {
+            Log.verbose("[GameTableWriter] Updated game: " + game.getAsString(GameDatabase.KEY_GAME_TITLE));
+        }
+    }
+
+    /**
+     * Removes the games and duplicates in scope that this scan didn't mark, write or move. Stale
+     * rows are found through the generation index and deleted by a single statement per table.
+     * Only call this if the walk was completed.
+     *
+     * @param scope         The paths the scan was limited to, or null after a full scan.
+     * @param promotedGames Receives the copies that took the place of removed games.
+     * @return The paths of the removed games.
+     */
+    List<String> sweep(@Nullable Set<String> scope, List<Game> promotedGames) {
+        List<String> args = new ArrayList<>();
+        String selection = getStaleSelection(scope, args);
+        String[] selectionArgs = args.toArray(new String[0]);
+
+        // Stale copies go first, so none of them is promoted below.
+        mDatabase.delete(GameDatabase.TABLE_NAME_DUPLICATES, selection, selectionArgs);
+
+        List<String> stalePaths = new ArrayList<>();
+        try (Cursor cursor = mDatabase.query(GameDatabase.TABLE_NAME_GAMES,
+                new String[]{GameDatabase.KEY_GAME_PATH},
+                selection,
+                selectionArgs,
+                null,    // No grouping.
+                null,
+                null)) {    // Order of games is irrelevant.
+            while (cursor.moveToNext()) {
+                stalePaths.add(cursor.getString(0));
+            }
+        }
+
+        for (String path : stalePaths) {
+            // A promoted copy is stamped, so the delete below leaves it alone.
+            Game promotedGame = promoteDuplicate(path);
+            if (promotedGame != null) {
+                promotedGames.add(promotedGame);
+            } else {
+                mIcons.remove(path);
+            }
+        }
+
+        if (!stalePaths.isEmpty()) {
+            mDeletedGames += mDatabase.delete(GameDatabase.TABLE_NAME_GAMES, selection,
+                    selectionArgs);
+            onRowWritten();
+        }
+        return stalePaths;
+    }
+
+    /**
+     * Lets a copy of a game that left the library take its place.
+     *
+     * @return The copy that took the game's place, if there was one.
+     */
+    @Nullable
+    private Game promoteDuplicate(String path) {
+        try (Cursor duplicate = mDatabase.rawQuery(SQL_FIND_DUPLICATE, new String[]{path})) {
+            if (duplicate.moveToFirst()) {
+                ContentValues copy = new ContentValues();
+                copy.put(GameDatabase.KEY_GAME_PATH, duplicate.getString(0));
+                FileFingerprint.fromCursor(duplicate, 1, 2, 3).putInto(copy);
+                return move(path, copy);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param args Receives the selection's arguments.
+     * @return A selection of the rows in scope that are older than this scan. Paths below a
+     * scope path are matched by range, so the path index serves them.
+     */
+    private String getStaleSelection(@Nullable Set<String> scope, List<String> args) {
+        StringBuilder selection = new StringBuilder(GameDatabase.KEY_GAME_SCAN_GENERATION)
+                .append(" < ?");
+        args.add(Long.toString(mScanGeneration));
+        if (scope == null) {
+            return selection.toString();
+        }
+
+        selection.append(" AND (0");
+        for (String path : scope) {
+            // '0' directly follows '/' in ASCII, so each range holds exactly the paths that start
+            // with the prefix before it.
+            selection.append(" OR ").append(GameDatabase.KEY_GAME_PATH).append(" = ?")
+                    .append(" OR (").append(GameDatabase.KEY_GAME_PATH).append(" >= ? AND ")
+                    .append(GameDatabase.KEY_GAME_PATH).append(" < ?)")
+                    .append(" OR (").append(GameDatabase.KEY_GAME_PATH).append(" >= ? AND ")
+                    .append(GameDatabase.KEY_GAME_PATH).append(" < ?)");
+            args.add(path);
+            args.add(path + "/");
+            args.add(path + "0");
+            args.add(path + ArchiveGameCache.ENTRY_SEPARATOR);
+            args.add(path + "!0");
+        }
+        return selection.append(")").toString();
+    }
+
+    private void deleteDuplicate(String path) {
+        mDeleteDuplicate.bindString(1, path);
+        mDeleteDuplicate.executeUpdateDelete();
+    }
+
+    @Nullable
+    private Game readGame(String path) {
+        try (Cursor cursor = mDatabase.query(GameDatabase.TABLE_NAME_GAMES,
+                GameDatabase.GRID_PROJECTION,
+                GameDatabase.KEY_GAME_PATH + " = ?",
+                new String[]{path},
+                null,    // No grouping.
+                null,
+                null)) {
+            return cursor.moveToFirst() ? Game.fromCursor(cursor) : null;
+        }
+    }
+
+    private void deleteRow(String path) {
+        mDeleteGame.bindString(1, path);
+        mDeletedGames += mDeleteGame.executeUpdateDelete();
+        onRowWritten();
+    }
+
+    int getWrittenGames() {
+        return mWrittenGames;
+    }
+
+    int getDeletedGames() {
+        return mDeletedGames;
+    }
+
+    int getDuplicateGames() {
+        return mDuplicateGames;
+    }
+
+    /**
+     * Commits the games written so far, so readers can see them before the batch is full.
+     */
+    @Override
+    public void commit() {
+        if (mPendingWrites > 0) {
+            endTransaction();
+            mDatabase.beginTransaction();
+        }
+    }
+
+    /**
+     * Commits the last batch, once the scan went through.
+     */
+    void finish() {
+        // Flush the icons along with the last batch of rows pointing at them.
+        mIcons.close();
+        endTransaction();
+        mFinished = true;
+    }
+
+    /**
+     * Releases the compiled statements. Unless {@link #finish} was called, the last batch is
+     * rolled back, and the icons its rows point at are left unflushed.
+     */
+    void close() {
+        if (!mFinished) {
+            mDatabase.endTransaction();
+            mPendingWrites = 0;
+        }
+
+        if (mUpsertGame != null) {
+            mUpsertGame.close();
+        } else {
+            mUpdateGame.close();
+            mInsertGame.close();
+        }
+        mDeleteGame.close();
+        mMoveGame.close();
+        mSetContentHash.close();
+        mWriteDuplicate.close();
+        mDeleteDuplicate.close();
+        mMarkGame.close();
+        mMarkDuplicate.close();
+    }
+
+    private void onRowWritten() {
+        if (++mPendingWrites >= GAMES_PER_TRANSACTION) {
+            commit();
+        }
+    }
+
+    private void endTransaction() {
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+        mPendingWrites = 0;
+    }
+
+    private static long getScanGeneration(SQLiteDatabase database, String table) {
+        // Served by the generation index. A table without rows yields 0.
+        return DatabaseUtils.longForQuery(database, "SELECT MAX("
+                + GameDatabase.KEY_GAME_SCAN_GENERATION + ") FROM " + table, null);
+    }
+
+    private static boolean supportsUpsert(SQLiteDatabase database) {
+        String[] version = DatabaseUtils.stringForQuery(database, "SELECT sqlite_version()", null)
+                .split("\\.");
+        for (int i = 0; i < MIN_UPSERT_SQLITE_VERSION.length; i++) {
+            int component = i < version.length ? Integer.parseInt(version[i]) : 0;
+            if (component != MIN_UPSERT_SQLITE_VERSION[i]) {
+                return component > MIN_UPSERT_SQLITE_VERSION[i];
+            }
+        }
+        return true;
+    }
+
+    private static void bindGame(SQLiteStatement statement, ContentValues game) {
+        statement.clearBindings();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, game.get(COLUMNS[i]));
+        }
+        statement.bindString(COLUMNS.length + 1, game.getAsString(GameDatabase.KEY_GAME_ID));
+    }
+}
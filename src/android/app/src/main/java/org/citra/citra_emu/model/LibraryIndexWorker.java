@@ -0,0 +1,72 @@
+package org.citra.citra_emu.model;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import org.citra.citra_emu.utils.DirectoryInitialization;
+import org.citra.citra_emu.utils.GameIconAtlas;
+import org.citra.citra_emu.utils.Log;
+import org.citra.citra_emu.utils.PermissionsHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the library up to date while the app isn't in use, so the scan on startup finds little
+ * left to parse.
+ * A full scan runs every {@link #INTERVAL_HOURS} hours, but only while the device is idle and
+ * charging, and has storage to spare for new metadata and icons.
+ */
+public final class LibraryIndexWorker extends Worker {
+    private static final String WORK_NAME = "LibraryIndex";
+    private static final long INTERVAL_HOURS = 6;
+
+    public LibraryIndexWorker(@NonNull Context context, @NonNull WorkerParameters parameters) {
+        super(context, parameters);
+    }
+
+    /**
+     * Schedules the indexer, unless it already is.
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setRequiresStorageNotLow(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(LibraryIndexWorker.class,
+                INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        if (!PermissionsHandler.hasWriteAccess(getApplicationContext())) {
+            // There is no library to scan until the user grants access.
+            return Result.success();
+        }
+        if (!DirectoryInitialization.areCitraDirectoriesReady()) {
+            // Started along with the app, so it will be done soon. Installed titles can't be
+            // listed before then.
+            return Result.retry();
+        }
+
+        Log.info("[LibraryIndexWorker] Indexing the library in the background...");
+        // Joins a scan the user started in the meantime, if there is one.
+        LibraryScanService.requestScan().blockingAwait();
+
+        // The game grid reads every icon from the atlas as soon as it is shown.
+        GameIconAtlas.prefetch();
+        return Result.success();
+    }
+}
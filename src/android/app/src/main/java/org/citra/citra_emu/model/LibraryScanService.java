@@ -0,0 +1,158 @@
+package org.citra.citra_emu.model;
+
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.Nullable;
+import androidx.preference.PreferenceManager;
+
+import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.utils.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.CompletableSubject;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * Runs library scans on a background thread. At most one scan runs at a time: requesting a full
+ * scan while one is already in progress joins the running scan, and any other request is queued
+ * until the running scan finishes. Queued requests are merged, so a burst of changes results in
+ * a single follow-up scan.
+ */
+public final class LibraryScanService {
+    /**
+     * Preference key for hashing the contents of games during scans, which lets copies and moved
+     * files be recognized without parsing them. Every new or changed file is read for its hash,
+     * which slows down scans of large libraries on slow storage, so it is off by default.
+     * <p>
+     * The hash only samples each file. Copies are compared in full before they are recorded, but
+     * a game whose old file is gone can't be, so a patched dump of the same size that replaces
+     * its original is taken for the original moved, and keeps its metadata.
+     */
+    public static final String PREF_HASH_CONTENTS = "LibraryScan_HashContents";
+
+    private static final Subject<ScanProgress> sProgress =
+            PublishSubject.<ScanProgress>create().toSerialized();
+
+    private static boolean sScanRunning = false;
+    private static boolean sRunningScanIsFull = false;
+    private static boolean sFullScanPending = false;
+    private static Set<String> sPendingPaths = new HashSet<>();
+    // Completed when the full scan that is running, or the next one, finishes.
+    private static CompletableSubject sRunningFullScan = CompletableSubject.create();
+    private static CompletableSubject sPendingFullScan = CompletableSubject.create();
+
+    private LibraryScanService() {
+        // Disallows instantiation.
+    }
+
+    /**
+     * @return The progress of every scan, emitted on a background thread. Each scan ends with an
+     * event marked as finished. The Observable itself never completes.
+     */
+    public static Observable<ScanProgress> observeProgress() {
+        return sProgress.hide();
+    }
+
+    public static synchronized boolean isScanRunning() {
+        return sScanRunning;
+    }
+
+    /**
+     * Starts a scan of the whole library, unless one is already running.
+     *
+     * @return Completes once the scan has finished, whether it succeeded or not.
+     */
+    public static synchronized Completable requestScan() {
+        if (sScanRunning && sRunningScanIsFull) {
+            Log.debug("[LibraryScanService] Joining the library scan already in progress.");
+            return sRunningFullScan.hide();
+        }
+
+        // A full scan covers any changed paths that were waiting.
+        CompletableSubject scanFinished = sPendingFullScan;
+        sFullScanPending = true;
+        sPendingPaths.clear();
+        startPendingScan();
+        return scanFinished.hide();
+    }
+
+    /**
+     * Starts a full scan because the user asked for one. Every folder is listed again, since
+     * games rewritten in place don't show in cached listings.
+     *
+     * @return Completes once the scan has finished, whether it succeeded or not.
+     */
+    public static Completable requestRefresh() {
+        DocumentTree.clearCache();
+        return requestScan();
+    }
+
+    /**
+     * Rescans only the given files or directories, once any running scan has finished.
+     */
+    public static synchronized void requestScan(Collection<String> paths) {
+        if (sFullScanPending) {
+            return;
+        }
+
+        sPendingPaths.addAll(paths);
+        startPendingScan();
+    }
+
+    private static synchronized void startPendingScan() {
+        if (sScanRunning || (!sFullScanPending && sPendingPaths.isEmpty())) {
+            return;
+        }
+
+        @Nullable Set<String> scope = sFullScanPending ? null : sPendingPaths;
+        sRunningScanIsFull = sFullScanPending;
+        if (sRunningScanIsFull) {
+            sRunningFullScan = sPendingFullScan;
+            sPendingFullScan = CompletableSubject.create();
+        }
+        sFullScanPending = false;
+        sPendingPaths = new HashSet<>();
+        sScanRunning = true;
+
+        Completable.fromAction(() ->
+        {
+            Log.info(scope == null ? "[LibraryScanService] Scanning library..." :
+                    "[LibraryScanService] Rescanning " + scope.size() + " changed paths...");
+
+            GameDatabase databaseHelper = CitraApplication.databaseHelper;
+            SQLiteDatabase database = databaseHelper.getWritableDatabase();
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(
+                    CitraApplication.getAppContext());
+            boolean hashContents = preferences.getBoolean(PREF_HASH_CONTENTS, false);
+            databaseHelper.scanLibrary(database, scope, hashContents, sProgress::onNext);
+
+            // The next startup shows the library as this scan left it.
+            LibrarySnapshot.write(databaseHelper);
+        })
+                .subscribeOn(Schedulers.io())
+                .subscribe(LibraryScanService::onScanFinished, throwable ->
+                {
+                    Log.error("[LibraryScanService] Library scan failed: " + throwable);
+                    sProgress.onNext(new ScanProgress(0, 0, null, Collections.emptyList(),
+                            Collections.emptyList(), true));
+                    onScanFinished();
+                });
+    }
+
+    private static synchronized void onScanFinished() {
+        sScanRunning = false;
+        if (sRunningScanIsFull) {
+            sRunningFullScan.onComplete();
+        }
+        startPendingScan();
+    }
+}
@@ -0,0 +1,917 @@
+package org.citra.citra_emu.model;
+
+import android.content.ContentValues;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.NativeLibrary;
+import org.citra.citra_emu.utils.ArchiveGameCache;
+import org.citra.citra_emu.utils.GameIconAtlas;
+import org.citra.citra_emu.utils.Log;
+import org.citra.citra_emu.utils.ZipCentralDirectory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Walks the library folders and extracts the metadata of every game found in them.
+ * Directory enumeration runs on a single producer thread, a couple of workers take the found
+ * files in batches and hand each batch to the native loader, which parses it on a thread per
+ * core, and the thread calling {@link #scan} acts as the single writer that drains the results.
+ * <p>
+ * Files whose {@link FileFingerprint} matches the one already stored in the database are
+ * never handed to the native loader. A scan can also be limited to a set of changed paths, in
+ * which case only those files (or directories) are looked at. Unchanged files are only
+ * reported to the writer as seen, so it can sweep the stored games the walk didn't come across.
+ * <p>
+ * Zip archives are listed through their central directory, and each game file in them becomes
+ * a game of its own, see {@link ArchiveGameCache}. Their metadata can't be read without
+ * extracting them, so they are named after their file.
+ * <p>
+ * If content hashing is enabled, workers hash each changed file before parsing it. A file whose
+ * {@link ContentHash} matches a stored game isn't parsed again: it is either that game after a
+ * move, or another copy of it, which is recorded as a duplicate once the two files turn out to be
+ * equal in full.
+ * <p>
+ * Folders picked through the Storage Access Framework are walked through their
+ * {@link DocumentTree}, whose listings already carry each document's fingerprint. The native
+ * loader reads their games through open descriptors. Zip archives in them are listed as games
+ * of their own, since their central directory can't be read through a document.
+ */
+final class LibraryScanner {
+    static final int MAX_DEPTH = 3;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    // Each batch is parsed on a native thread per core, so a couple of workers are enough to
+    // keep the cores busy while the other batch is being hashed or handed to the writer.
+    private static final int MAX_WORKERS = 2;
+    private static final int BATCH_SIZE = 16;
+
+    private static final Set<String> TOP_LEVEL_EXTENSIONS = new HashSet<>(Arrays.asList(
+            ".3ds", ".3dsx", ".elf", ".axf", ".cci", ".cxi", ".app", ".rar", ".zip", ".7z", ".torrent", ".tar", ".gz"));
+    private static final Set<String> NESTED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            ".3ds", ".3dsx", ".elf", ".axf", ".cci", ".cxi", ".app"));
+    private static final Set<String> ARCHIVE_ENTRY_EXTENSIONS = new HashSet<>(Arrays.asList(
+            ".3ds", ".cci", ".cxi"));
+    private static final String ZIP_EXTENSION = ".zip";
+
+    // Queue terminators. These are compared by reference, never by value.
+    private static final PendingGame END_OF_PATHS = new PendingGame(null, null, null, false);
+    private static final ScannedGame END_OF_GAMES = new ScannedGame(null, null);
+
+    private final List<File> mFolders;
+    private final List<DocumentTree> mDocumentTrees;
+    @Nullable
+    private final Set<String> mScope;
+    private final Map<String, FileFingerprint> mKnownGames;
+    private final MetadataSource mMetadataSource;
+    private final ScanRecorder mRecorder;
+    // The path of the stored game with each content hash, including the ones hashed during this
+    // scan. Null if content hashing is disabled.
+    @Nullable
+    private final Map<Long, String> mKnownHashes;
+    private final Set<String> mUnhashedPaths;
+    // The paths of the known games inside each archive, keyed by the archive's path.
+    private final Map<String, List<String>> mKnownArchiveEntries = new HashMap<>();
+    private final int mWorkerCount;
+    private volatile boolean mWalkCompleted = false;
+    private boolean mCompleted = false;
+    private final AtomicInteger mFilesVisited = new AtomicInteger();
+    private volatile String mCurrentPath;
+    private final BlockingQueue<PendingGame> mPaths = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<ScannedGame> mGames = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Direct buffers the native loader writes icons into. Every buffer is returned once the
+    // writer is done with it, so the pool never grows beyond the number of games in flight.
+    private final Queue<ByteBuffer> mIconBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Receives each scanned game on the thread that called {@link #scan}.
+     */
+    interface GameWriter {
+        /**
+         * @param icon The game's RGB_565 icon pixels, or null if it has none. Only valid for the
+         *             duration of the call.
+         */
+        void write(ContentValues game, @Nullable ByteBuffer icon);
+
+        /**
+         * @param game The path, fingerprint and content hash of another copy of a stored game.
+         */
+        void writeDuplicate(ContentValues game);
+
+        /**
+         * @param game The path, fingerprint and content hash the game stored at the old path has
+         *             now.
+         * @return The moved game, or null if it was recorded as a duplicate instead.
+         */
+        @Nullable
+        Game move(String oldPath, ContentValues game);
+
+        void setContentHash(String path, long contentHash);
+
+        /**
+         * Records that a stored game or duplicate is still there, unchanged.
+         */
+        void markSeen(String path);
+
+        /**
+         * Makes the games written so far visible to readers.
+         */
+        void commit();
+    }
+
+    /**
+     * Where a scan gets the metadata of the games it finds. Scans read it from the ROMs with the
+     * native loader, see {@link #NATIVE_METADATA}; benchmarks substitute a fake source.
+     */
+    interface MetadataSource {
+        String[] getInstalledGamePaths();
+
+        /**
+         * Reads a batch of games. Called by several workers at once.
+         *
+         * @param metadata Receives the metadata of each game, at the game's index.
+         * @param icons    A direct buffer per game that receives its icon.
+         */
+        void read(String[] paths, NativeLibrary.GameMetadata[] metadata, ByteBuffer[] icons);
+    }
+
+    static final MetadataSource NATIVE_METADATA = new MetadataSource() {
+        // Each worker reuses one batch buffer for the whole scan.
+        private final ThreadLocal<NativeLibrary.GameMetadataBatch> mBatches =
+                ThreadLocal.withInitial(() -> new NativeLibrary.GameMetadataBatch(BATCH_SIZE));
+
+        @Override
+        public String[] getInstalledGamePaths() {
+            return NativeLibrary.GetInstalledGamePaths();
+        }
+
+        @Override
+        public void read(String[] paths, NativeLibrary.GameMetadata[] metadata,
+                         ByteBuffer[] icons) {
+            NativeLibrary.GameMetadataBatch batch = mBatches.get();
+            batch.read(paths);
+            for (int i = 0; i < paths.length; i++) {
+                metadata[i] = batch.get(i, icons[i]);
+            }
+        }
+    };
+
+    private enum ResultType {
+        // A newly parsed game.
+        GAME,
+        // Another copy of a stored game.
+        DUPLICATE,
+        // A stored game that is now at another path.
+        MOVED,
+        // The content hash of a stored game, which was stored without one.
+        CONTENT_HASH,
+        // A stored game or duplicate the walk came across again.
+        SEEN
+    }
+
+    private static final class ScannedGame {
+        final ResultType type;
+        final ContentValues values;
+        @Nullable
+        final ByteBuffer icon;
+        // Where a moved game was stored.
+        @Nullable
+        final String oldPath;
+
+        ScannedGame(ContentValues values, @Nullable ByteBuffer icon) {
+            this(ResultType.GAME, values, icon, null);
+        }
+
+        ScannedGame(ResultType type, ContentValues values, @Nullable ByteBuffer icon,
+                    @Nullable String oldPath) {
+            this.type = type;
+            this.values = values;
+            this.icon = icon;
+            this.oldPath = oldPath;
+        }
+    }
+
+    private static final class PendingGame {
+        final String path;
+        final FileFingerprint fingerprint;
+        // The display name of a document. Null for files, whose path ends in their name.
+        @Nullable
+        final String fileName;
+        // Whether the game is stored and unchanged, and only needs to be hashed.
+        final boolean hashOnly;
+
+        PendingGame(String path, FileFingerprint fingerprint, @Nullable String fileName,
+                    boolean hashOnly) {
+            this.path = path;
+            this.fingerprint = fingerprint;
+            this.fileName = fileName;
+            this.hashOnly = hashOnly;
+        }
+
+        String getFileName() {
+            return fileName != null ? fileName : path.substring(path.lastIndexOf('/') + 1);
+        }
+    }
+
+    /**
+     * @param folders    The library folders to walk.
+     * @param documentTrees The library folders picked through the Storage Access Framework.
+     * @param scope      The changed files or directories to look at, or null to scan the
+     *                   whole library (including installed titles).
+     * @param knownGames    The fingerprint of every game and duplicate already in the database,
+     *                      keyed by path.
+     * @param knownHashes   The path of the stored game with each content hash, or null to scan
+     *                      without hashing.
+     * @param unhashedPaths The stored games that have no content hash yet.
+     * @param metadataSource Reads the metadata of new and changed games.
+     * @param recorder       Times the phases of the scan.
+     */
+    LibraryScanner(List<File> folders, List<DocumentTree> documentTrees,
+                   @Nullable Set<String> scope, Map<String, FileFingerprint> knownGames,
+                   @Nullable Map<Long, String> knownHashes, Set<String> unhashedPaths,
+                   MetadataSource metadataSource, ScanRecorder recorder) {
+        mFolders = folders;
+        mDocumentTrees = documentTrees;
+        mScope = scope;
+        mKnownGames = knownGames;
+        mMetadataSource = metadataSource;
+        mRecorder = recorder;
+        mKnownHashes = knownHashes != null ? new ConcurrentHashMap<>(knownHashes) : null;
+        mUnhashedPaths = unhashedPaths;
+        for (String path : knownGames.keySet()) {
+            int separator = path.indexOf(ArchiveGameCache.ENTRY_SEPARATOR);
+            if (separator > 0) {
+                mKnownArchiveEntries.computeIfAbsent(path.substring(0, separator),
+                        archivePath -> new ArrayList<>()).add(path);
+            }
+        }
+        mWorkerCount = Math.max(1, Math.min(MAX_WORKERS,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Blocks until every folder (and every installed title), or every path in scope, has been
+     * scanned.
+     *
+     * @param writer           Called once per game, always from the calling thread.
+     * @param progressListener Periodically told how far the scan got, from the calling thread.
+     *                         Every update lists the games committed since the previous one.
+     */
+    void scan(GameWriter writer, Consumer<ScanProgress> progressListener) {
+        ExecutorService executor = Executors.newFixedThreadPool(mWorkerCount + 1);
+        executor.execute(this::enumerateGames);
+        for (int i = 0; i < mWorkerCount; i++) {
+            executor.execute(this::extractGames);
+        }
+        executor.shutdown();
+
+        int finishedWorkers = 0;
+        int writtenGames = 0;
+        List<Game> newGames = new ArrayList<>();
+        long lastProgressTime = 0;
+        try {
+            while (finishedWorkers < mWorkerCount) {
+                ScannedGame game = mGames.poll(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (game == END_OF_GAMES) {
+                    finishedWorkers++;
+                } else if (game != null) {
+                    long writeStart = System.nanoTime();
+                    switch (game.type) {
+                        case GAME:
+                            writer.write(game.values, game.icon);
+                            if (game.icon != null) {
+                                mIconBuffers.offer(game.icon);
+                            }
+                            writtenGames++;
+                            newGames.add(Game.fromContentValues(game.values));
+                            break;
+                        case DUPLICATE:
+                            writer.writeDuplicate(game.values);
+                            break;
+                        case MOVED:
+                            Game movedGame = writer.move(game.oldPath, game.values);
+                            if (movedGame != null) {
+                                writtenGames++;
+                                newGames.add(movedGame);
+                            }
+                            break;
+                        case CONTENT_HASH:
+                            writer.setContentHash(
+                                    game.values.getAsString(GameDatabase.KEY_GAME_PATH),
+                                    game.values.getAsLong(GameDatabase.KEY_GAME_CONTENT_HASH));
+                            break;
+                        case SEEN:
+                            writer.markSeen(game.values.getAsString(GameDatabase.KEY_GAME_PATH));
+                            break;
+                    }
+                    mRecorder.record(ScanReport.Phase.SQLITE_WRITES, writeStart, 1);
+                }
+
+                long now = SystemClock.elapsedRealtime();
+                if (now - lastProgressTime >= PROGRESS_INTERVAL_MS) {
+                    // Games are only announced once readers can see them in the database.
+                    commit(writer);
+                    progressListener.accept(new ScanProgress(mFilesVisited.get(), writtenGames,
+                            mCurrentPath, newGames, Collections.emptyList(), false));
+                    newGames = new ArrayList<>();
+                    lastProgressTime = now;
+                }
+            }
+
+            commit(writer);
+            progressListener.accept(new ScanProgress(mFilesVisited.get(), writtenGames,
+                    mCurrentPath, newGames, Collections.emptyList(), false));
+
+            // Every worker has handed over its last game, so whatever the walk found is written.
+            mCompleted = finishedWorkers == mWorkerCount && mWalkCompleted &&
+                    !Thread.currentThread().isInterrupted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // If the writer bailed out early, unblock the producer and the workers.
+            if (finishedWorkers < mWorkerCount) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void commit(GameWriter writer) {
+        long start = System.nanoTime();
+        writer.commit();
+        mRecorder.record(ScanReport.Phase.SQLITE_WRITES, start, 0);
+    }
+
+    private void enumerateGames() {
+        try {
+            try {
+                if (mScope != null) {
+                    enumerateScope();
+                } else {
+                    for (File folder : mFolders) {
+                        enumerateGamesRecursive(folder, TOP_LEVEL_EXTENSIONS, MAX_DEPTH);
+                    }
+                    for (DocumentTree tree : mDocumentTrees) {
+                        enumerateDocumentTree(tree);
+                    }
+
+                    long start = System.nanoTime();
+                    String[] installedPaths = mMetadataSource.getInstalledGamePaths();
+                    mRecorder.record(ScanReport.Phase.INSTALLED_TITLES, start,
+                            installedPaths.length);
+                    for (String path : installedPaths) {
+                        visitGame(path);
+                    }
+                }
+
+                mWalkCompleted = true;
+            } catch (RuntimeException e) {
+                Log.error("[LibraryScanner] Failed to enumerate games: " + e);
+            }
+
+            for (int i = 0; i < mWorkerCount; i++) {
+                mPaths.put(END_OF_PATHS);
+            }
+        } catch (InterruptedException e) {
+            // The scan was cancelled, nobody is waiting for the workers anymore.
+        }
+    }
+
+    private void enumerateGamesRecursive(File parent, Set<String> allowedExtensions, int depth)
+            throws InterruptedException {
+        if (depth <= 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        File[] children = parent.listFiles();
+        mRecorder.record(ScanReport.Phase.DIRECTORY_WALK, start,
+                children != null ? children.length : 0);
+        if (children != null) {
+            for (File file : children) {
+                if (file.isHidden()) {
+                    continue;
+                }
+
+                if (file.isDirectory()) {
+                    enumerateGamesRecursive(file, NESTED_EXTENSIONS, depth - 1);
+                } else {
+                    String filePath = file.getPath();
+
+                    // Check that the file has an extension we care about before trying to read out of it.
+                    long filterStart = System.nanoTime();
+                    boolean allowed = hasAllowedExtension(filePath, allowedExtensions);
+                    mRecorder.record(ScanReport.Phase.EXTENSION_FILTER, filterStart, 1);
+                    if (allowed) {
+                        visitFile(filePath);
+                    }
+                }
+            }
+        }
+    }
+
+    private void enumerateDocumentTree(DocumentTree tree) throws InterruptedException {
+        // Queried for this scan before it started.
+        DocumentTree.Document root = tree.getRoot();
+        if (root != null) {
+            enumerateDocumentsRecursive(tree, root, TOP_LEVEL_EXTENSIONS, MAX_DEPTH);
+        }
+    }
+
+    private void enumerateDocumentsRecursive(DocumentTree tree, DocumentTree.Document parent,
+                                             Set<String> allowedExtensions, int depth)
+            throws InterruptedException {
+        if (depth <= 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<DocumentTree.Document> children = tree.listChildren(parent);
+        mRecorder.record(ScanReport.Phase.DIRECTORY_WALK, start, children.size());
+        for (DocumentTree.Document document : children) {
+            if (document.name.startsWith(".")) {
+                continue;
+            }
+
+            if (document.isDirectory) {
+                enumerateDocumentsRecursive(tree, document, NESTED_EXTENSIONS, depth - 1);
+            } else {
+                long filterStart = System.nanoTime();
+                boolean allowed = hasAllowedExtension(document.name, allowedExtensions);
+                mRecorder.record(ScanReport.Phase.EXTENSION_FILTER, filterStart, 1);
+                if (allowed) {
+                    visitGame(tree.getDocumentPath(document), document.getFingerprint(),
+                            document.name);
+                }
+            }
+        }
+    }
+
+    private void enumerateScope() throws InterruptedException {
+        for (String path : mScope) {
+            // Documents only change by full scans, apart from newly added folders.
+            DocumentTree tree = findDocumentTree(path);
+            if (tree != null) {
+                enumerateDocumentTree(tree);
+                continue;
+            }
+
+            File folder = findLibraryFolder(path);
+            if (folder == null) {
+                continue;
+            }
+
+            // How far below the library folder the path is, as counted by enumerateGamesRecursive.
+            int depth = 0;
+            for (int i = folder.getPath().length(); i < path.length(); i++) {
+                if (path.charAt(i) == '/') {
+                    depth++;
+                }
+            }
+
+            File file = new File(path);
+            if (file.isDirectory()) {
+                enumerateGamesRecursive(file, depth == 0 ? TOP_LEVEL_EXTENSIONS : NESTED_EXTENSIONS,
+                        MAX_DEPTH - depth);
+            } else if (depth <= MAX_DEPTH && hasAllowedExtension(path,
+                    depth == 1 ? TOP_LEVEL_EXTENSIONS : NESTED_EXTENSIONS)) {
+                // If the file is gone, it is skipped and gets swept with the other unseen games.
+                visitFile(path);
+            }
+        }
+    }
+
+    @Nullable
+    private DocumentTree findDocumentTree(String path) {
+        for (DocumentTree tree : mDocumentTrees) {
+            if (tree.getPath().equals(path)) {
+                return tree;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private File findLibraryFolder(String path) {
+        for (File folder : mFolders) {
+            if (isSameOrBelow(path, folder.getPath())) {
+                return folder;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSameOrBelow(String path, String parent) {
+        return path.equals(parent) || path.startsWith(parent + "/") ||
+                path.startsWith(parent + ArchiveGameCache.ENTRY_SEPARATOR);
+    }
+
+    private static boolean hasAllowedExtension(String path, Set<String> allowedExtensions) {
+        int extensionStart = path.lastIndexOf('.');
+        return extensionStart > 0 &&
+                allowedExtensions.contains(path.substring(extensionStart).toLowerCase());
+    }
+
+    private void visitFile(String path) throws InterruptedException {
+        if (path.toLowerCase().endsWith(ZIP_EXTENSION)) {
+            visitArchive(path);
+        } else {
+            visitGame(path);
+        }
+    }
+
+    private void visitArchive(String path) throws InterruptedException {
+        FileFingerprint fingerprint = statFile(path);
+        if (fingerprint == null) {
+            return;
+        }
+
+        // The games in an archive carry its fingerprint, so if one matches, they all do.
+        List<String> knownEntries = mKnownArchiveEntries.get(path);
+        if (knownEntries != null && fingerprint.equals(mKnownGames.get(knownEntries.get(0)))) {
+            for (String entryPath : knownEntries) {
+                markSeen(entryPath);
+            }
+            mFilesVisited.incrementAndGet();
+            mCurrentPath = path;
+            return;
+        }
+
+        List<String> entryNames = new ArrayList<>();
+        try {
+            for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(new File(path))) {
+                if (hasAllowedExtension(entry.name, ARCHIVE_ENTRY_EXTENSIONS)) {
+                    entryNames.add(entry.name);
+                }
+            }
+        } catch (IOException e) {
+            Log.warning("[LibraryScanner] Failed to list archive " + path + ": " + e);
+        }
+
+        if (entryNames.isEmpty()) {
+            // Listed like any other archive, so the user can see it is there.
+            visitGame(path);
+            return;
+        }
+
+        mFilesVisited.incrementAndGet();
+        mCurrentPath = path;
+        for (String entryName : entryNames) {
+            String entryPath = ArchiveGameCache.getEntryPath(path, entryName);
+
+            // Nothing for the native loader to do, so these go straight to the writer. The path
+            // doubles as the game ID, since other archives may hold files of the same name.
+            String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+            ContentValues values = Game.asContentValues(fileName, "", "", entryPath,
+                    entryPath, "");
+            fingerprint.putInto(values);
+            mGames.put(new ScannedGame(values, null));
+        }
+    }
+
+    private void visitGame(String path) throws InterruptedException {
+        FileFingerprint fingerprint = statFile(path);
+        if (fingerprint != null) {
+            visitGame(path, fingerprint, null);
+        }
+    }
+
+    /**
+     * @param fileName The display name of a document, or null for a file.
+     */
+    private void visitGame(String path, FileFingerprint fingerprint, @Nullable String fileName)
+            throws InterruptedException {
+        mFilesVisited.incrementAndGet();
+        mCurrentPath = path;
+
+        // Unchanged since the last scan, so the stored metadata is still valid.
+        if (fingerprint.equals(mKnownGames.get(path))) {
+            markSeen(path);
+            // Games stored before hashing was enabled still need their hash.
+            if (mKnownHashes != null && mUnhashedPaths.contains(path)) {
+                mPaths.put(new PendingGame(path, fingerprint, fileName, true));
+            }
+            return;
+        }
+
+        mPaths.put(new PendingGame(path, fingerprint, fileName, false));
+    }
+
+    @Nullable
+    private FileFingerprint statFile(String path) {
+        long start = System.nanoTime();
+        FileFingerprint fingerprint = FileFingerprint.of(path);
+        mRecorder.record(ScanReport.Phase.FILE_STAT, start, 1);
+        return fingerprint;
+    }
+
+    private void extractGames() {
+        List<PendingGame> batch = new ArrayList<>(BATCH_SIZE);
+        List<PendingGame> unparsedGames = new ArrayList<>(BATCH_SIZE);
+        List<Long> contentHashes = new ArrayList<>(BATCH_SIZE);
+        try {
+            boolean endOfPaths = false;
+            while (!endOfPaths) {
+                // Whatever is queued up to the batch size, without waiting for more.
+                batch.clear();
+                batch.add(mPaths.take());
+                mPaths.drainTo(batch, BATCH_SIZE - 1);
+
+                // Terminators only follow the last path, so taking one ends this worker. Any
+                // taken along with it belong to the other workers.
+                int terminators = 0;
+                while (batch.remove(END_OF_PATHS)) {
+                    terminators++;
+                }
+                if (terminators > 0) {
+                    endOfPaths = true;
+                    for (int i = 1; i < terminators; i++) {
+                        mPaths.put(END_OF_PATHS);
+                    }
+                }
+
+                unparsedGames.clear();
+                contentHashes.clear();
+                try {
+                    for (PendingGame game : batch) {
+                        Long contentHash = hashContents(game.path);
+                        if (!resolveByContentHash(game, contentHash) && !game.hashOnly) {
+                            unparsedGames.add(game);
+                            contentHashes.add(contentHash);
+                        }
+                    }
+
+                    if (!unparsedGames.isEmpty()) {
+                        parseGames(unparsedGames, contentHashes);
+                    }
+                } catch (RuntimeException e) {
+                    // The writer waits for every worker to finish, so one bad batch must not end
+                    // this one. Whatever is stored for its files is kept until they can be read.
+                    Log.error("[LibraryScanner] Failed to scan a batch of games: " + e);
+                    for (PendingGame game : batch) {
+                        markSeen(game.path);
+                    }
+                }
+            }
+            mGames.put(END_OF_GAMES);
+        } catch (InterruptedException e) {
+            // The scan was cancelled, nobody is waiting for the results anymore.
+        }
+    }
+
+    /**
+     * Settles games that don't need to be parsed because their content hash is already known.
+     *
+     * @param contentHash The game's content hash, or null if it couldn't be hashed.
+     * @return Whether the game was settled.
+     */
+    private boolean resolveByContentHash(PendingGame game, @Nullable Long contentHash)
+            throws InterruptedException {
+        if (contentHash == null) {
+            return false;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(GameDatabase.KEY_GAME_PATH, game.path);
+        values.put(GameDatabase.KEY_GAME_CONTENT_HASH, contentHash);
+
+        if (game.hashOnly) {
+            mKnownHashes.putIfAbsent(contentHash, game.path);
+            mGames.put(new ScannedGame(ResultType.CONTENT_HASH, values, null, null));
+            return true;
+        }
+
+        // Claimed first, so two new copies found by this scan aren't both parsed.
+        String knownPath = mKnownHashes.putIfAbsent(contentHash, game.path);
+        if (knownPath == null) {
+            return false;
+        }
+
+        // The stored metadata applies, whichever path it was stored under.
+        game.fingerprint.putInto(values);
+        values.put(GameDatabase.KEY_GAME_FILE_NAME, game.fileName);
+        boolean moved = knownPath.equals(game.path) || !exists(knownPath);
+        if (!moved && !isSameContents(game.path, knownPath)) {
+            // Only the sampled blocks match, so it is a game of its own.
+            return false;
+        }
+        mGames.put(new ScannedGame(moved ? ResultType.MOVED : ResultType.DUPLICATE,
+                values, null, knownPath));
+        return true;
+    }
+
+    /**
+     * Parses the games with one call to the metadata source. The native loader spreads them over
+     * a thread per core.
+     *
+     * @param contentHashes The content hash of each game, or null where it has none.
+     */
+    private void parseGames(List<PendingGame> games, List<Long> contentHashes)
+            throws InterruptedException {
+        String[] paths = new String[games.size()];
+        NativeLibrary.GameMetadata[] metadata = new NativeLibrary.GameMetadata[paths.length];
+        ByteBuffer[] icons = new ByteBuffer[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = games.get(i).path;
+
+            // Decoded while the file is open anyway, so the game grid never has to.
+            icons[i] = mIconBuffers.poll();
+            if (icons[i] == null) {
+                icons[i] = ByteBuffer.allocateDirect(GameIconAtlas.SLOT_BYTES);
+            }
+        }
+
+        // The native loader only takes paths, so documents are handed to it open.
+        String[] readPaths = paths;
+        ParcelFileDescriptor[] documents = null;
+        for (int i = 0; i < paths.length; i++) {
+            if (!DocumentTree.isDocumentPath(paths[i])) {
+                continue;
+            }
+            if (documents == null) {
+                readPaths = paths.clone();
+                documents = new ParcelFileDescriptor[paths.length];
+            }
+            try {
+                documents[i] = DocumentTree.open(paths[i]);
+                readPaths[i] = DocumentTree.getDescriptorPath(documents[i]);
+            } catch (FileNotFoundException e) {
+                // Left to the loader, which fails to read it like any other unreadable file.
+                Log.warning("[LibraryScanner] Failed to open " + paths[i] + ": " + e);
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            mMetadataSource.read(readPaths, metadata, icons);
+        } catch (RuntimeException e) {
+            mRecorder.record(ScanReport.Phase.NATIVE_METADATA, start, paths.length);
+            closeDocuments(documents);
+            for (int i = 0; i < paths.length; i++) {
+                mIconBuffers.offer(icons[i]);
+                Log.error("[LibraryScanner] Failed to read game " + paths[i] + ": " + e);
+                // Whatever is stored for the file is kept until it can be read.
+                markSeen(paths[i]);
+                if (contentHashes.get(i) != null) {
+                    // Let a working copy of the same file be parsed instead.
+                    mKnownHashes.remove(contentHashes.get(i), paths[i]);
+                }
+            }
+            return;
+        }
+        mRecorder.record(ScanReport.Phase.NATIVE_METADATA, start, paths.length);
+        closeDocuments(documents);
+
+        // The loader reports the path it read as the description and game ID. For documents that
+        // is a descriptor path, which the next batch reuses for other games.
+        if (documents != null) {
+            for (int i = 0; i < paths.length; i++) {
+                if (documents[i] != null) {
+                    metadata[i].description = paths[i];
+                    metadata[i].gameId = paths[i];
+                }
+            }
+        }
+
+        for (int i = 0; i < paths.length; i++) {
+            ByteBuffer icon = icons[i];
+            ContentValues values = readGame(games.get(i), metadata[i]);
+            games.get(i).fingerprint.putInto(values);
+            values.put(GameDatabase.KEY_GAME_CONTENT_HASH, contentHashes.get(i));
+
+            if (!metadata[i].hasIcon) {
+                mIconBuffers.offer(icon);
+                icon = null;
+            }
+            mGames.put(new ScannedGame(values, icon));
+        }
+    }
+
+    private static void closeDocuments(@Nullable ParcelFileDescriptor[] documents) {
+        if (documents == null) {
+            return;
+        }
+
+        for (ParcelFileDescriptor document : documents) {
+            if (document != null) {
+                try {
+                    document.close();
+                } catch (IOException e) {
+                    Log.warning("[LibraryScanner] Failed to close a document: " + e);
+                }
+            }
+        }
+    }
+
+    private static boolean exists(String path) {
+        return DocumentTree.isDocumentPath(path) ? DocumentTree.exists(path) :
+                new File(path).exists();
+    }
+
+    private void markSeen(String path) throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(GameDatabase.KEY_GAME_PATH, path);
+        mGames.put(new ScannedGame(ResultType.SEEN, values, null, null));
+    }
+
+    /**
+     * @return The file's content hash, or null if hashing is disabled or the file can't be read.
+     */
+    @Nullable
+    private Long hashContents(String path) {
+        if (mKnownHashes == null) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return ContentHash.of(path);
+        } catch (IOException e) {
+            Log.warning("[LibraryScanner] Failed to hash " + path + ": " + e);
+            return null;
+        } finally {
+            mRecorder.record(ScanReport.Phase.CONTENT_HASHING, start, 1);
+        }
+    }
+
+    /**
+     * @return Whether both files could be read and are equal, byte for byte.
+     */
+    private boolean isSameContents(String path, String otherPath) {
+        long start = System.nanoTime();
+        try {
+            return ContentHash.sameContents(path, otherPath);
+        } catch (IOException e) {
+            Log.warning("[LibraryScanner] Failed to compare " + path + " to " + otherPath +
+                    ": " + e);
+            return false;
+        } finally {
+            mRecorder.record(ScanReport.Phase.CONTENT_HASHING, start, 1);
+        }
+    }
+
+    /**
+     * Only meaningful once {@link #scan} has returned.
+     *
+     * @return Whether the walk got through every folder, or every path in scope, and every game it
+     * found was written without the scan being interrupted. Only then have all the games that are
+     * still there been marked as seen.
+     */
+    boolean isCompleted() {
+        return mCompleted;
+    }
+
+    int getFilesVisited() {
+        return mFilesVisited.get();
+    }
+
+    private static ContentValues readGame(PendingGame game, NativeLibrary.GameMetadata metadata) {
+        String filePath = game.path;
+        String name = metadata.title;
+        String fileName = game.getFileName();
+
+        // If the game's title field is empty, use the filename.
+        if (name.isEmpty()) {
+            name = fileName;
+        }
+
+        String gameId = metadata.gameId;
+
+        // If the game's ID field is empty, use the filename without extension.
+        if (gameId.isEmpty()) {
+            int extensionStart = fileName.lastIndexOf('.');
+            gameId = extensionStart > 0 ? fileName.substring(0, extensionStart) : fileName;
+        }
+
+        ContentValues values = Game.asContentValues(name,
+                metadata.description.replace('\n', ' '),
+                metadata.regions,
+                filePath,
+                gameId,
+                metadata.company);
+        values.put(GameDatabase.KEY_GAME_FILE_NAME, game.fileName);
+        return values;
+    }
+}
@@ -0,0 +1,153 @@
+package org.citra.citra_emu.model;
+
+import android.database.Cursor;
+
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.utils.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A copy of the first games of the game grid, written after every library scan. On startup the
+ * grid is drawn from it straight away, without waiting for the database to be opened and queried.
+ * Its games are identical to the ones read from the database later, so replacing them causes no
+ * visible change.
+ * <p>
+ * The file is a header followed by one record per game: the icon slot, then the path, title,
+ * regions, game ID and company, each as a length and UTF-8 bytes.
+ */
+public final class LibrarySnapshot {
+    private static final String FILE_NAME = "library.snapshot";
+    private static final int MAGIC = 0x4C534E50;
+    private static final int VERSION = 2;
+    // The first page of the game grid fills the screen several times over.
+    private static final int GAME_COUNT = 200;
+    private static final int NULL_STRING = -1;
+
+    private LibrarySnapshot() {
+        // Disallows instantiation.
+    }
+
+    /**
+     * @return The games recorded by the last scan, sorted by title, or an empty list if there is
+     * no usable snapshot.
+     */
+    public static List<Game> read() {
+        try (FileChannel channel = new FileInputStream(getFile()).getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return Collections.emptyList();
+            }
+
+            int count = buffer.getInt();
+            List<Game> games = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int iconSlot = buffer.getInt();
+                String path = getString(buffer);
+                String title = getString(buffer);
+                String regions = getString(buffer);
+                String gameId = getString(buffer);
+                String company = getString(buffer);
+                String fileName = getString(buffer);
+                games.add(new Game(title, null, regions, path, gameId, company, iconSlot,
+                        fileName));
+            }
+            return games;
+        } catch (FileNotFoundException e) {
+            return Collections.emptyList();
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException |
+                NegativeArraySizeException e) {
+            Log.warning("[LibrarySnapshot] Ignoring unreadable library snapshot: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Records the first games of the library as they are in the database now.
+     */
+    static void write(GameDatabase database) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Cursor cursor = database.getGamePage(null, 0, GAME_COUNT);
+             DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Game game = Game.fromCursor(cursor);
+                output.writeInt(game.getIconSlot());
+                putString(output, game.getPath());
+                putString(output, game.getTitle());
+                putString(output, game.getRegions());
+                putString(output, game.getGameId());
+                putString(output, game.getCompany());
+                putString(output, game.getFileName());
+            }
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new IllegalStateException(e);
+        }
+
+        // Written to a temporary file first, so startup never maps a partial snapshot.
+        File file = getFile();
+        File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            bytes.writeTo(output);
+        } catch (IOException e) {
+            Log.warning("[LibrarySnapshot] Failed to write the library snapshot: " + e);
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+
+    static void delete() {
+        getFile().delete();
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream output, @Nullable String string)
+            throws IOException {
+        if (string == null) {
+            output.writeInt(NULL_STRING);
+            return;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static File getFile() {
+        return new File(CitraApplication.getAppContext().getFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,220 @@
+package org.citra.citra_emu.model;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.utils.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Keeps the library up to date while the app is in the foreground, without full rescans. Every
+ * directory the library scan would look into is watched for files being added, removed or
+ * rewritten. Changes are collected for {@link #DEBOUNCE_MS}, so copying a batch of games results
+ * in one partial scan of just the affected paths. Whatever changed while the app was in the
+ * background is caught up on when watching resumes, by a partial scan of the watched directories
+ * whose modification time moved since watching stopped. That catches files being added, removed
+ * or renamed, but not a game being rewritten in place, which is left to the next full scan.
+ */
+public final class LibraryWatcher {
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+            FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE |
+            FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    private static final long DEBOUNCE_MS = 1000;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable sFlushChanges = LibraryWatcher::flushChanges;
+    private static final List<FileObserver> sObservers = new ArrayList<>();
+    private static final Set<String> sChangedPaths = new HashSet<>();
+
+    private static boolean sWatching = false;
+    // The modification time of every watched directory when watching last stopped, or null if it
+    // hasn't been stopped yet. The library may have changed unobserved since.
+    @Nullable
+    private static Map<String, Long> sPausedDirectories;
+    private static Disposable sScanSubscription;
+
+    private LibraryWatcher() {
+        // Disallows instantiation.
+    }
+
+    public static synchronized void startWatching() {
+        if (sWatching) {
+            return;
+        }
+        sWatching = true;
+
+        // Scans pick up new folders and subdirectories, which have to be watched as well.
+        sScanSubscription = LibraryScanService.observeProgress()
+                .filter(ScanProgress::isFinished)
+                .observeOn(Schedulers.io())
+                .subscribe(progress -> watchLibraryFolders());
+        // The library is scanned on startup anyway, only later starts have to catch up.
+        Map<String, Long> pausedDirectories = sPausedDirectories;
+        sPausedDirectories = null;
+        Schedulers.io().scheduleDirect(() ->
+        {
+            watchLibraryFolders();
+            if (pausedDirectories != null) {
+                rescanChangedDirectories(pausedDirectories);
+            }
+        });
+    }
+
+    public static synchronized void stopWatching() {
+        if (!sWatching) {
+            return;
+        }
+        sWatching = false;
+
+        sScanSubscription.dispose();
+        sScanSubscription = null;
+
+        // A stat per directory, the same directories the observers were just watching.
+        sPausedDirectories = new HashMap<>();
+        for (FileObserver observer : sObservers) {
+            String directory = ((DirectoryObserver) observer).mDirectory;
+            sPausedDirectories.put(directory, new File(directory).lastModified());
+        }
+        stopObservers();
+
+        // Changes that haven't been flushed yet are scanned right away, so the rescan in
+        // startWatching only has to look for what changes from now on.
+        sHandler.removeCallbacks(sFlushChanges);
+        flushChanges();
+    }
+
+    /**
+     * Catches up on whatever changed while nothing was watching, by rescanning the directories
+     * that had entries added, removed or renamed since.
+     *
+     * @param pausedDirectories The modification time of each directory when watching stopped.
+     */
+    private static void rescanChangedDirectories(Map<String, Long> pausedDirectories) {
+        List<String> changedDirectories = new ArrayList<>();
+        for (Map.Entry<String, Long> directory : pausedDirectories.entrySet()) {
+            // A directory that is gone reports 0, so its games are swept.
+            if (new File(directory.getKey()).lastModified() != directory.getValue()) {
+                changedDirectories.add(directory.getKey());
+            }
+        }
+
+        if (!changedDirectories.isEmpty()) {
+            Log.debug("[LibraryWatcher] " + changedDirectories.size() +
+                    " library directories changed while paused.");
+            LibraryScanService.requestScan(changedDirectories);
+        }
+    }
+
+    private static void watchLibraryFolders() {
+        // Files are looked for up to LibraryScanner.MAX_DEPTH levels below a library folder, so
+        // their parent directories are at most one level less deep.
+        List<String> directories = new ArrayList<>();
+        for (String folder : CitraApplication.databaseHelper.getLibraryFolders()) {
+            collectDirectories(new File(folder), LibraryScanner.MAX_DEPTH - 1, directories);
+        }
+
+        synchronized (LibraryWatcher.class) {
+            if (!sWatching) {
+                return;
+            }
+
+            stopObservers();
+            for (String directory : directories) {
+                FileObserver observer = new DirectoryObserver(directory);
+                observer.startWatching();
+                sObservers.add(observer);
+            }
+        }
+
+        Log.debug("[LibraryWatcher] Watching " + directories.size() + " library directories.");
+    }
+
+    private static void collectDirectories(File directory, int depth, List<String> directories) {
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        directories.add(directory.getPath());
+        if (depth <= 0) {
+            return;
+        }
+
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (!child.isHidden()) {
+                    collectDirectories(child, depth - 1, directories);
+                }
+            }
+        }
+    }
+
+    private static void stopObservers() {
+        for (FileObserver observer : sObservers) {
+            observer.stopWatching();
+        }
+        sObservers.clear();
+    }
+
+    private static synchronized void onChange(String path) {
+        if (!sWatching) {
+            return;
+        }
+
+        sChangedPaths.add(path);
+        sHandler.removeCallbacks(sFlushChanges);
+        sHandler.postDelayed(sFlushChanges, DEBOUNCE_MS);
+    }
+
+    private static void flushChanges() {
+        List<String> changedPaths;
+        synchronized (LibraryWatcher.class) {
+            changedPaths = new ArrayList<>(sChangedPaths);
+            sChangedPaths.clear();
+        }
+
+        if (!changedPaths.isEmpty()) {
+            Log.debug("[LibraryWatcher] " + changedPaths.size() + " library paths changed.");
+            LibraryScanService.requestScan(changedPaths);
+        }
+    }
+
+    private static final class DirectoryObserver extends FileObserver {
+        private final String mDirectory;
+
+        // The File-based constructor needs API 29, the string-based one is still fine.
+        @SuppressWarnings("deprecation")
+        DirectoryObserver(String directory) {
+            super(directory, EVENTS);
+            mDirectory = directory;
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String path) {
+            if ((event & EVENTS) == 0) {
+                return;
+            }
+
+            if (path == null) {
+                // The watched directory itself was deleted or moved away.
+                onChange(mDirectory);
+            } else if (!path.startsWith(".")) {
+                onChange(mDirectory + "/" + path);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.citra.citra_emu.model;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot of a running library scan, as emitted by {@link LibraryScanService}.
+ */
+public final class ScanProgress {
+    private final int mFilesVisited;
+    private final int mGamesAdded;
+    @Nullable
+    private final String mCurrentPath;
+    private final List<Game> mNewGames;
+    private final List<String> mRemovedPaths;
+    private final boolean mFinished;
+
+    public ScanProgress(int filesVisited, int gamesAdded, @Nullable String currentPath,
+                        List<Game> newGames, List<String> removedPaths, boolean finished) {
+        mFilesVisited = filesVisited;
+        mGamesAdded = gamesAdded;
+        mCurrentPath = currentPath;
+        mNewGames = Collections.unmodifiableList(newGames);
+        mRemovedPaths = Collections.unmodifiableList(removedPaths);
+        mFinished = finished;
+    }
+
+    /**
+     * @return How many candidate files the directory walk has come across so far.
+     */
+    public int getFilesVisited() {
+        return mFilesVisited;
+    }
+
+    /**
+     * @return How many new or changed games have been written to the database so far.
+     */
+    public int getGamesAdded() {
+        return mGamesAdded;
+    }
+
+    /**
+     * @return The file the directory walk most recently came across.
+     */
+    @Nullable
+    public String getCurrentPath() {
+        return mCurrentPath;
+    }
+
+    /**
+     * @return The games committed to the database since the previous progress update.
+     */
+    public List<Game> getNewGames() {
+        return mNewGames;
+    }
+
+    /**
+     * @return The paths of the games the scan removed from the database. Only the last progress
+     * update of a scan lists any.
+     */
+    public List<String> getRemovedPaths() {
+        return mRemovedPaths;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+}
@@ -0,0 +1,104 @@
+package org.citra.citra_emu.model;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times the phases of a library scan, from any number of threads at once. Every call is counted
+ * in a histogram of buckets a quarter of a power of two wide, so percentiles come out within 19%
+ * of the real value while the recorder stays small and lock-free, however long the scan runs.
+ */
+final class ScanRecorder {
+    private static final int SUB_BUCKETS = 4;
+    // Enough for any positive long number of nanoseconds.
+    private static final int BUCKET_COUNT = 64 * SUB_BUCKETS;
+    private static final int PHASE_COUNT = ScanReport.Phase.values().length;
+
+    private final long mStartTime = System.currentTimeMillis();
+    private final long mStartMillis = SystemClock.elapsedRealtime();
+    private final AtomicLongArray mCalls = new AtomicLongArray(PHASE_COUNT);
+    private final AtomicLongArray mItems = new AtomicLongArray(PHASE_COUNT);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(PHASE_COUNT);
+    private final AtomicLongArray mMaxNanos = new AtomicLongArray(PHASE_COUNT);
+    private final AtomicLongArray mHistograms = new AtomicLongArray(PHASE_COUNT * BUCKET_COUNT);
+
+    /**
+     * Records a call that began at the given {@link System#nanoTime()} and ends now.
+     *
+     * @param items The number of files, rows or games the call handled.
+     */
+    void record(ScanReport.Phase phase, long startNanos, int items) {
+        long nanos = Math.max(0, System.nanoTime() - startNanos);
+        int index = phase.ordinal();
+        mCalls.incrementAndGet(index);
+        mItems.addAndGet(index, items);
+        mTotalNanos.addAndGet(index, nanos);
+        mMaxNanos.accumulateAndGet(index, nanos, Math::max);
+        mHistograms.incrementAndGet(index * BUCKET_COUNT + getBucket(nanos));
+    }
+
+    /**
+     * @return A report of every phase that was recorded at least once.
+     */
+    ScanReport finish(boolean fullScan, int filesVisited, int gamesWritten, int gamesRemoved) {
+        List<ScanReport.PhaseReport> phases = new ArrayList<>();
+        for (ScanReport.Phase phase : ScanReport.Phase.values()) {
+            int index = phase.ordinal();
+            long calls = mCalls.get(index);
+            if (calls == 0) {
+                continue;
+            }
+
+            long maxNanos = mMaxNanos.get(index);
+            phases.add(new ScanReport.PhaseReport(phase.getLabel(), calls, mItems.get(index),
+                    mTotalNanos.get(index) / 1000,
+                    getPercentile(index, calls, 0.50, maxNanos) / 1000,
+                    getPercentile(index, calls, 0.90, maxNanos) / 1000,
+                    getPercentile(index, calls, 0.99, maxNanos) / 1000,
+                    maxNanos / 1000));
+        }
+
+        return new ScanReport(mStartTime, fullScan, SystemClock.elapsedRealtime() - mStartMillis,
+                filesVisited, gamesWritten, gamesRemoved, phases);
+    }
+
+    /**
+     * @return The upper bound of the bucket holding the given percentile, capped at the longest
+     * call.
+     */
+    private long getPercentile(int phaseIndex, long calls, double percentile, long maxNanos) {
+        long rank = (long) Math.ceil(calls * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mHistograms.get(phaseIndex * BUCKET_COUNT + bucket);
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(bucket), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    private static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+
+        // The power of two, then the next two bits below the leading one.
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + 1;
+        long width = 1L << (exponent - 2);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
@@ -0,0 +1,269 @@
+package org.citra.citra_emu.model;
+
+import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.utils.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How long each phase of a library scan took. The reports of the last {@link #MAX_REPORTS}
+ * scans are kept in a file, so they can be looked at when a user reports a slow library.
+ */
+public final class ScanReport {
+    private static final String FILE_NAME = "library_scans.json";
+    private static final int MAX_REPORTS = 10;
+
+    /**
+     * The parts of a scan that are timed. Each one is timed per call, and counts the items the
+     * calls handled, such as files or rows.
+     */
+    public enum Phase {
+        STALE_PURGE("Stale purge"),
+        DIRECTORY_WALK("Directory walk"),
+        FILE_STAT("File stat"),
+        EXTENSION_FILTER("Extension filter"),
+        CONTENT_HASHING("Content hashing"),
+        NATIVE_METADATA("Native metadata"),
+        SQLITE_WRITES("SQLite writes"),
+        INSTALLED_TITLES("Installed titles");
+
+        private final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    public static final class PhaseReport {
+        private final String mLabel;
+        private final long mCalls;
+        private final long mItems;
+        private final long mTotalMicros;
+        private final long mP50Micros;
+        private final long mP90Micros;
+        private final long mP99Micros;
+        private final long mMaxMicros;
+
+        PhaseReport(String label, long calls, long items, long totalMicros, long p50Micros,
+                    long p90Micros, long p99Micros, long maxMicros) {
+            mLabel = label;
+            mCalls = calls;
+            mItems = items;
+            mTotalMicros = totalMicros;
+            mP50Micros = p50Micros;
+            mP90Micros = p90Micros;
+            mP99Micros = p99Micros;
+            mMaxMicros = maxMicros;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+
+        public long getCalls() {
+            return mCalls;
+        }
+
+        public long getItems() {
+            return mItems;
+        }
+
+        /**
+         * @return The time spent in the phase, summed over every thread.
+         */
+        public long getTotalMicros() {
+            return mTotalMicros;
+        }
+
+        public long getP50Micros() {
+            return mP50Micros;
+        }
+
+        public long getP90Micros() {
+            return mP90Micros;
+        }
+
+        public long getP99Micros() {
+            return mP99Micros;
+        }
+
+        public long getMaxMicros() {
+            return mMaxMicros;
+        }
+
+        private JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("label", mLabel)
+                    .put("calls", mCalls)
+                    .put("items", mItems)
+                    .put("totalMicros", mTotalMicros)
+                    .put("p50Micros", mP50Micros)
+                    .put("p90Micros", mP90Micros)
+                    .put("p99Micros", mP99Micros)
+                    .put("maxMicros", mMaxMicros);
+        }
+
+        private static PhaseReport fromJson(JSONObject json) throws JSONException {
+            return new PhaseReport(json.getString("label"), json.getLong("calls"),
+                    json.getLong("items"), json.getLong("totalMicros"), json.getLong("p50Micros"),
+                    json.getLong("p90Micros"), json.getLong("p99Micros"),
+                    json.getLong("maxMicros"));
+        }
+    }
+
+    private final long mStartTime;
+    private final boolean mFullScan;
+    private final long mDurationMillis;
+    private final int mFilesVisited;
+    private final int mGamesWritten;
+    private final int mGamesRemoved;
+    private final List<PhaseReport> mPhases;
+
+    ScanReport(long startTime, boolean fullScan, long durationMillis, int filesVisited,
+               int gamesWritten, int gamesRemoved, List<PhaseReport> phases) {
+        mStartTime = startTime;
+        mFullScan = fullScan;
+        mDurationMillis = durationMillis;
+        mFilesVisited = filesVisited;
+        mGamesWritten = gamesWritten;
+        mGamesRemoved = gamesRemoved;
+        mPhases = Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return When the scan started, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return Whether the whole library was scanned, rather than only some changed paths.
+     */
+    public boolean isFullScan() {
+        return mFullScan;
+    }
+
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    public int getFilesVisited() {
+        return mFilesVisited;
+    }
+
+    public int getGamesWritten() {
+        return mGamesWritten;
+    }
+
+    public int getGamesRemoved() {
+        return mGamesRemoved;
+    }
+
+    /**
+     * @return The phases the scan went through, in the order of {@link Phase}.
+     */
+    public List<PhaseReport> getPhases() {
+        return mPhases;
+    }
+
+    /**
+     * @return The reports of the last scans, newest first.
+     */
+    public static List<ScanReport> readAll() {
+        List<ScanReport> reports = new ArrayList<>();
+        File file = getFile();
+        if (!file.exists()) {
+            // No scan has finished yet.
+            return reports;
+        }
+
+        try {
+            JSONArray json = new JSONArray(new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8));
+            for (int i = 0; i < json.length(); i++) {
+                reports.add(fromJson(json.getJSONObject(i)));
+            }
+        } catch (IOException | JSONException e) {
+            Log.warning("[ScanReport] Ignoring unreadable scan reports: " + e);
+        }
+        return reports;
+    }
+
+    /**
+     * Adds the report to the stored ones, dropping the oldest once there are too many.
+     */
+    static synchronized void save(ScanReport report) {
+        List<ScanReport> reports = readAll();
+        reports.add(0, report);
+
+        JSONArray json = new JSONArray();
+        try {
+            for (int i = 0; i < Math.min(reports.size(), MAX_REPORTS); i++) {
+                json.put(reports.get(i).toJson());
+            }
+        } catch (JSONException e) {
+            // Can't happen with the finite numbers reports are made of.
+            throw new IllegalStateException(e);
+        }
+
+        // Written to a temporary file first, so a crash never leaves a partial file behind.
+        File file = getFile();
+        File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            output.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.warning("[ScanReport] Failed to save the scan report: " + e);
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONArray phases = new JSONArray();
+        for (PhaseReport phase : mPhases) {
+            phases.put(phase.toJson());
+        }
+        return new JSONObject()
+                .put("startTime", mStartTime)
+                .put("fullScan", mFullScan)
+                .put("durationMillis", mDurationMillis)
+                .put("filesVisited", mFilesVisited)
+                .put("gamesWritten", mGamesWritten)
+                .put("gamesRemoved", mGamesRemoved)
+                .put("phases", phases);
+    }
+
+    private static ScanReport fromJson(JSONObject json) throws JSONException {
+        JSONArray phasesJson = json.getJSONArray("phases");
+        List<PhaseReport> phases = new ArrayList<>(phasesJson.length());
+        for (int i = 0; i < phasesJson.length(); i++) {
+            phases.add(PhaseReport.fromJson(phasesJson.getJSONObject(i)));
+        }
+        return new ScanReport(json.getLong("startTime"), json.getBoolean("fullScan"),
+                json.getLong("durationMillis"), json.getInt("filesVisited"),
+                json.getInt("gamesWritten"), json.getInt("gamesRemoved"), phases);
+    }
+
+    private static File getFile() {
+        return new File(CitraApplication.getAppContext().getFilesDir(), FILE_NAME);
+    }
+}
@@ -2,6 +2,7 @@ package org.citra.citra_emu.ui.main;
 
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -12,6 +13,7 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 
 import org.citra.citra_emu.NativeLibrary;
@@ -19,6 +21,7 @@ import org.citra.citra_emu.R;
 import org.citra.citra_emu.activities.EmulationActivity;
 import org.citra.citra_emu.features.settings.ui.SettingsActivity;
 import org.citra.citra_emu.model.GameProvider;
+import org.citra.citra_emu.model.LibraryWatcher;
 import org.citra.citra_emu.ui.platform.PlatformGamesFragment;
 import org.citra.citra_emu.utils.AddDirectoryHelper;
 import org.citra.citra_emu.utils.BillingManager;
@@ -47,6 +50,7 @@ public final class MainActivity extends AppCompatActivity implements MainView {
 
     private ActivityResultLauncher<Intent> mSelectCIALauncher;
     private ActivityResultLauncher<Intent> mSelectGameDirectoryLauncher;
+    private ActivityResultLauncher<Uri> mSelectGameTreeLauncher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -88,6 +92,20 @@ public final class MainActivity extends AppCompatActivity implements MainView {
                     }
                 }
         );
+        mSelectGameTreeLauncher = registerForActivityResult(
+                new ActivityResultContracts.OpenDocumentTree(),
+                treeUri -> {
+                    // Null if the user backed out.
+                    if (treeUri != null) {
+                        // Keeps access to the folder across restarts.
+                        getContentResolver().takePersistableUriPermission(treeUri,
+                                Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                        // Only one game directory is supported, as with the file picker.
+                        getContentResolver().insert(GameProvider.URI_RESET, null);
+                        mPresenter.onDirectorySelected(treeUri.toString());
+                    }
+                }
+        );
 
         if (savedInstanceState == null) {
             StartupHandler.HandleInit(this);
@@ -121,6 +139,16 @@ public final class MainActivity extends AppCompatActivity implements MainView {
     protected void onResume() {
         super.onResume();
         mPresenter.addDirIfNeeded(new AddDirectoryHelper(this));
+
+        if (PermissionsHandler.hasWriteAccess(this)) {
+            LibraryWatcher.startWatching();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        LibraryWatcher.stopWatching();
+        super.onPause();
     }
 
     // TODO: Replace with a ButterKnife injection.
@@ -134,6 +162,24 @@ public final class MainActivity extends AppCompatActivity implements MainView {
         inflater.inflate(R.menu.menu_game_grid, menu);
         mPremiumButton = menu.findItem(R.id.button_premium);
 
+        SearchView searchView = (SearchView) menu.findItem(R.id.search_games).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Results follow the user's typing, the search index keeps every query cheap.
+                if (mPlatformGamesFragment != null) {
+                    mPlatformGamesFragment.search(newText);
+                }
+                return true;
+            }
+        });
+
         if (BillingManager.isPremiumCached()) {
             // User had premium in a previous session, hide upsell option
             setPremiumButtonVisible(false);
@@ -177,6 +223,11 @@ public final class MainActivity extends AppCompatActivity implements MainView {
         if (PermissionsHandler.hasWriteAccess(this)) {
             switch (request) {
                 case MainPresenter.REQUEST_ADD_DIRECTORY:
+                    if (FileBrowserHelper.isScopedStorage()) {
+                        // The file picker can't see shared storage anymore.
+                        mSelectGameTreeLauncher.launch(null);
+                        break;
+                    }
                     mSelectGameDirectoryLauncher.launch(FileBrowserHelper.createDirectoryPickerIntent(
                             this, R.string.select_game_folder,
                             Arrays.asList("elf", "axf", "cci", "3ds", "cxi", "app", "3dsx", "cia",
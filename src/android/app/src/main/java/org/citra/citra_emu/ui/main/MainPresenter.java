@@ -3,11 +3,9 @@ package org.citra.citra_emu.ui.main;
 import android.os.SystemClock;
 
 import org.citra.citra_emu.BuildConfig;
-import org.citra.citra_emu.CitraApplication;
 import org.citra.citra_emu.R;
 import org.citra.citra_emu.features.settings.model.Settings;
 import org.citra.citra_emu.features.settings.utils.SettingsFile;
-import org.citra.citra_emu.model.GameDatabase;
 import org.citra.citra_emu.utils.AddDirectoryHelper;
 import org.citra.citra_emu.utils.DirectoryInitialization;
 
@@ -74,8 +72,7 @@ public final class MainPresenter {
     }
 
     public void refreshGameList() {
-        GameDatabase databaseHelper = CitraApplication.databaseHelper;
-        databaseHelper.scanLibrary(databaseHelper.getWritableDatabase());
+        // The view requests the (asynchronous) library scan as part of refreshing.
         mView.refresh();
     }
 }
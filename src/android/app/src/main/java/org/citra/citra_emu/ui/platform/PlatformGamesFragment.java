@@ -1,29 +1,35 @@
 package org.citra.citra_emu.ui.platform;
 
-import android.database.Cursor;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
-import org.citra.citra_emu.CitraApplication;
 import org.citra.citra_emu.R;
 import org.citra.citra_emu.adapters.GameAdapter;
-import org.citra.citra_emu.model.GameDatabase;
+import org.citra.citra_emu.model.Game;
+import org.citra.citra_emu.model.ScanProgress;
+
+import java.util.List;
 
 public final class PlatformGamesFragment extends Fragment implements PlatformGamesView {
+    // How many games from the end of the loaded ones the next page is requested.
+    private static final int LOAD_MORE_DISTANCE = 30;
+
     private PlatformGamesPresenter mPresenter = new PlatformGamesPresenter(this);
 
     private GameAdapter mAdapter;
     private RecyclerView mRecyclerView;
     private TextView mTextView;
+    private SwipeRefreshLayout mPullToRefresh;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -36,8 +42,6 @@ public final class PlatformGamesFragment extends Fragment implements PlatformGam
 
         findViews(rootView);
 
-        mPresenter.onCreateView();
-
         return rootView;
     }
 
@@ -51,14 +55,31 @@ public final class PlatformGamesFragment extends Fragment implements PlatformGam
         mRecyclerView.setAdapter(mAdapter);
         mRecyclerView.addItemDecoration(new GameAdapter.SpacesItemDecoration(ContextCompat.getDrawable(getActivity(), R.drawable.gamelist_divider), 1));
 
-        // Add swipe down to refresh gesture
-        final SwipeRefreshLayout pullToRefresh = view.findViewById(R.id.refresh_grid_games);
-        pullToRefresh.setOnRefreshListener(() -> {
-            GameDatabase databaseHelper = CitraApplication.databaseHelper;
-            databaseHelper.scanLibrary(databaseHelper.getWritableDatabase());
-            refresh();
-            pullToRefresh.setRefreshing(false);
+        // The games are read a page at a time, the next one once the user nears the end of the
+        // loaded ones. Also called after every layout, so pages keep coming until the grid is full.
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int lastVisible = ((GridLayoutManager) layoutManager).findLastVisibleItemPosition();
+                if (lastVisible >= mAdapter.getItemCount() - LOAD_MORE_DISTANCE) {
+                    mPresenter.loadMoreGames();
+                }
+            }
         });
+
+        // Add swipe down to refresh gesture. The spinner stops once the scan reports it finished.
+        mPullToRefresh.setOnRefreshListener(this::refresh);
+
+        // Only once the adapter exists, since the presenter may show games right away.
+        mPresenter.onCreateView();
+    }
+
+    @Override
+    public void onDestroyView() {
+        mPresenter.onDestroyView();
+        // Lets the adapter cancel a game extraction that would launch the game.
+        mRecyclerView.setAdapter(null);
+        super.onDestroyView();
     }
 
     @Override
@@ -67,20 +88,53 @@ public final class PlatformGamesFragment extends Fragment implements PlatformGam
         updateTextView();
     }
 
+    public void search(String text) {
+        mPresenter.search(text);
+    }
+
+    @Override
+    public void showGames(List<Game> games) {
+        if (mAdapter != null) {
+            mAdapter.swapGames(games);
+        }
+        updateTextView();
+    }
+
+    @Override
+    public void addGames(List<Game> games) {
+        if (mAdapter != null) {
+            mAdapter.addGames(games);
+        }
+        updateTextView();
+    }
+
     @Override
-    public void showGames(Cursor games) {
+    public void removeGames(List<String> paths) {
         if (mAdapter != null) {
-            mAdapter.swapCursor(games);
+            mAdapter.removeGames(paths);
         }
         updateTextView();
     }
 
+    @Override
+    public void showScanProgress(ScanProgress progress) {
+        mPullToRefresh.setRefreshing(!progress.isFinished());
+
+        if (progress.isFinished()) {
+            mTextView.setText(R.string.empty_gamelist);
+        } else {
+            mTextView.setText(getString(R.string.scanning_library, progress.getFilesVisited(),
+                    progress.getGamesAdded()));
+        }
+    }
+
     private void updateTextView() {
-        mTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        mTextView.setVisibility(mAdapter.isEmpty() ? View.VISIBLE : View.GONE);
     }
 
     private void findViews(View root) {
         mRecyclerView = root.findViewById(R.id.grid_games);
         mTextView = root.findViewById(R.id.gamelist_empty_text);
+        mPullToRefresh = root.findViewById(R.id.refresh_grid_games);
     }
 }
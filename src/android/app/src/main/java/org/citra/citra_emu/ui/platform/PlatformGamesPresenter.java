@@ -1,42 +1,275 @@
 package org.citra.citra_emu.ui.platform;
 
 
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
 import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.model.Game;
 import org.citra.citra_emu.model.GameDatabase;
+import org.citra.citra_emu.model.GameProvider;
+import org.citra.citra_emu.model.LibraryScanService;
+import org.citra.citra_emu.model.LibrarySnapshot;
+import org.citra.citra_emu.model.ScanProgress;
 import org.citra.citra_emu.utils.Log;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 
 public final class PlatformGamesPresenter {
+    // Enough games to fill the screen a few times over.
+    private static final int PAGE_SIZE = 200;
+
     private final PlatformGamesView mView;
+    private Disposable mScanSubscription;
+    private Disposable mLoadSubscription;
+
+    // What the user is searching for, or an empty string to show the whole library.
+    private String mSearchText = "";
+
+    // Where the pages loaded so far end. Games sorted after the last loaded one are shown once
+    // the page holding them is loaded.
+    @Nullable
+    private String mLastLoadedTitle;
+    private long mLastLoadedId;
+    private boolean mAllPagesLoaded;
+
+    // Changes a scan announced since the games list started loading, which the pages loaded
+    // since may have missed.
+    private final List<Game> mGamesSinceLoad = new ArrayList<>();
+    private final Set<String> mPathsRemovedSinceLoad = new HashSet<>();
 
     public PlatformGamesPresenter(PlatformGamesView view) {
         mView = view;
     }
 
     public void onCreateView() {
+        // Follows every scan, including the ones started by the library watcher.
+        mScanSubscription = LibraryScanService.observeProgress()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::onScanProgress);
+
+        // Shown until the first page arrives from the database, which replaces it without any
+        // visible change unless the library changed in between.
+        List<Game> snapshot = LibrarySnapshot.read();
+        if (!snapshot.isEmpty()) {
+            mView.showGames(snapshot);
+        }
+
         loadGames();
     }
 
+    public void onDestroyView() {
+        if (mScanSubscription != null) {
+            mScanSubscription.dispose();
+            mScanSubscription = null;
+        }
+        if (mLoadSubscription != null) {
+            mLoadSubscription.dispose();
+            mLoadSubscription = null;
+        }
+    }
+
     public void refresh() {
         Log.debug("[PlatformGamesPresenter] : Refreshing...");
         loadGames();
+
+        // Joins the scan already in progress, if there is one.
+        LibraryScanService.requestRefresh();
+    }
+
+    /**
+     * Shows only the games matching the given text, or every game if it is empty.
+     */
+    public void search(String text) {
+        text = text.trim();
+        if (text.equals(mSearchText)) {
+            return;
+        }
+
+        mSearchText = text;
+        loadGames();
+    }
+
+    private void onScanProgress(ScanProgress progress) {
+        mView.showScanProgress(progress);
+
+        if (!mSearchText.isEmpty()) {
+            // Whether the new games match is up to the search index, so just search again.
+            if (progress.isFinished()) {
+                loadGames();
+            }
+            return;
+        }
+
+        if (!progress.getNewGames().isEmpty()) {
+            mGamesSinceLoad.addAll(progress.getNewGames());
+            mPathsRemovedSinceLoad.removeIf(path -> containsPath(progress.getNewGames(), path));
+
+            List<Game> loadedGames = getLoadedGames(progress.getNewGames());
+            if (!loadedGames.isEmpty()) {
+                mView.addGames(loadedGames);
+            }
+        }
+
+        if (!progress.getRemovedPaths().isEmpty()) {
+            Log.debug("[PlatformGamesPresenter] : Removing " +
+                    progress.getRemovedPaths().size() + " games...");
+            mGamesSinceLoad.removeIf(game -> progress.getRemovedPaths().contains(game.getPath()));
+            mPathsRemovedSinceLoad.addAll(progress.getRemovedPaths());
+            mView.removeGames(progress.getRemovedPaths());
+        }
+    }
+
+    /**
+     * Loads the next page of the games list, unless it is already loading or there is none.
+     */
+    public void loadMoreGames() {
+        if (!mSearchText.isEmpty() || mAllPagesLoaded || mLastLoadedTitle == null ||
+                (mLoadSubscription != null && !mLoadSubscription.isDisposed())) {
+            return;
+        }
+
+        loadPage(false);
     }
 
     private void loadGames() {
         Log.debug("[PlatformGamesPresenter] : Loading games...");
 
-        GameDatabase databaseHelper = CitraApplication.databaseHelper;
+        // Only the latest load or search is shown, one that is still running is outdated.
+        if (mLoadSubscription != null) {
+            mLoadSubscription.dispose();
+        }
+
+        mGamesSinceLoad.clear();
+        mPathsRemovedSinceLoad.clear();
+        mLastLoadedTitle = null;
+        mLastLoadedId = 0;
+        mAllPagesLoaded = false;
 
-        databaseHelper.getGames()
+        if (mSearchText.isEmpty()) {
+            loadPage(true);
+            return;
+        }
+
+        mLoadSubscription = searchGames(mSearchText)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(games ->
                 {
-                    Log.debug("[PlatformGamesPresenter] : Load finished, swapping cursor...");
-
+                    Log.debug("[PlatformGamesPresenter] : Search finished, swapping games...");
                     mView.showGames(games);
                 });
     }
+
+    private void loadPage(boolean firstPage) {
+        String afterTitle = mLastLoadedTitle;
+        long afterId = mLastLoadedId;
+        mLoadSubscription = Observable.fromCallable(() -> queryPage(afterTitle, afterId))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(page ->
+                {
+                    Log.debug("[PlatformGamesPresenter] : Loaded a page of " +
+                            page.games.size() + " games.");
+
+                    page.games.removeIf(game -> mPathsRemovedSinceLoad.contains(game.getPath()));
+                    if (page.lastTitle != null) {
+                        mLastLoadedTitle = page.lastTitle;
+                        mLastLoadedId = page.lastId;
+                    }
+                    mAllPagesLoaded = page.isLastPage;
+
+                    if (firstPage) {
+                        mView.showGames(page.games);
+                    } else if (!page.games.isEmpty()) {
+                        mView.addGames(page.games);
+                    }
+
+                    // A scan may have written these after the page was read, so they win over it.
+                    List<Game> loadedGames = getLoadedGames(mGamesSinceLoad);
+                    if (!loadedGames.isEmpty()) {
+                        mView.addGames(loadedGames);
+                    }
+                });
+    }
+
+    /**
+     * @return Those of the given games that sort within the pages loaded so far.
+     */
+    private List<Game> getLoadedGames(List<Game> games) {
+        List<Game> loadedGames = new ArrayList<>();
+        for (Game game : games) {
+            if (mAllPagesLoaded || (mLastLoadedTitle != null &&
+                    game.getTitle().compareTo(mLastLoadedTitle) <= 0)) {
+                loadedGames.add(game);
+            }
+        }
+        return loadedGames;
+    }
+
+    private static boolean containsPath(List<Game> games, String path) {
+        for (Game game : games) {
+            if (game.getPath().equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Page queryPage(@Nullable String afterTitle, long afterId) {
+        Uri.Builder uri = GameProvider.URI_GAMES.buildUpon()
+                .appendQueryParameter(GameProvider.QUERY_PARAMETER_LIMIT, Integer.toString(PAGE_SIZE));
+        if (afterTitle != null) {
+            uri.appendQueryParameter(GameProvider.QUERY_PARAMETER_AFTER_TITLE, afterTitle)
+                    .appendQueryParameter(GameProvider.QUERY_PARAMETER_AFTER_ID, Long.toString(afterId));
+        }
+
+        Page page = new Page();
+        try (Cursor cursor = CitraApplication.getAppContext().getContentResolver()
+                .query(uri.build(), null, null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                page.games.add(Game.fromCursor(cursor));
+                page.lastTitle = cursor.getString(cursor.getColumnIndexOrThrow(GameDatabase.KEY_GAME_TITLE));
+                page.lastId = cursor.getLong(cursor.getColumnIndexOrThrow(GameDatabase.KEY_DB_ID));
+            }
+        }
+        page.isLastPage = page.games.size() < PAGE_SIZE;
+        return page;
+    }
+
+    private static Observable<List<Game>> searchGames(String text) {
+        return Observable.fromCallable(() ->
+        {
+            Uri uri = GameProvider.URI_SEARCH.buildUpon()
+                    .appendQueryParameter(GameProvider.QUERY_PARAMETER_SEARCH_TEXT, text)
+                    .build();
+
+            List<Game> games = new ArrayList<>();
+            try (Cursor cursor = CitraApplication.getAppContext().getContentResolver()
+                    .query(uri, null, null, null, null)) {
+                while (cursor != null && cursor.moveToNext()) {
+                    games.add(Game.fromCursor(cursor));
+                }
+            }
+            return games;
+        });
+    }
+
+    private static final class Page {
+        final List<Game> games = new ArrayList<>(PAGE_SIZE);
+        @Nullable
+        String lastTitle;
+        long lastId;
+        boolean isLastPage;
+    }
 }
@@ -1,6 +1,9 @@
 package org.citra.citra_emu.ui.platform;
 
-import android.database.Cursor;
+import org.citra.citra_emu.model.Game;
+import org.citra.citra_emu.model.ScanProgress;
+
+import java.util.List;
 
 /**
  * Abstraction for a screen representing a single platform's games.
@@ -13,9 +16,31 @@ public interface PlatformGamesView {
 
     /**
      * To be called when an asynchronous database read completes. Passes the
-     * result, in this case a {@link Cursor}, to the view.
+     * result, in this case a list of {@link Game}s, to the view.
+     *
+     * @param games The games read from the database, sorted by title.
+     */
+    void showGames(List<Game> games);
+
+    /**
+     * To be called while a library scan is running, as soon as newly found games
+     * have been committed to the database.
+     *
+     * @param games The games that were just added or updated.
+     */
+    void addGames(List<Game> games);
+
+    /**
+     * To be called when a library scan removed games from the database.
+     *
+     * @param paths The paths of the removed games.
+     */
+    void removeGames(List<String> paths);
+
+    /**
+     * To be called on the main thread whenever a running library scan reports progress.
      *
-     * @param games A Cursor containing the games read from the database.
+     * @param progress How far the scan got. The last update of a scan is marked as finished.
      */
-    void showGames(Cursor games);
+    void showScanProgress(ScanProgress progress);
 }
@@ -0,0 +1,257 @@
+package org.citra.citra_emu.utils;
+
+import androidx.annotation.WorkerThread;
+
+import org.citra.citra_emu.CitraApplication;
+import org.citra.citra_emu.model.FileFingerprint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Games inside zip archives are listed in the library under the path of the archive, followed by
+ * {@link #ENTRY_SEPARATOR} and the name of the game's file in the archive. They are only
+ * extracted when launched, into a cache that is kept below {@link #MAX_CACHE_BYTES} by deleting
+ * the games that were launched the longest time ago. Games that don't fit into the cache on their
+ * own are never extracted, and the copies of games that left the library are deleted by the
+ * library scan that removes them.
+ */
+public final class ArchiveGameCache {
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    private static final String DIRECTORY_NAME = "archive_games";
+    private static final long MAX_CACHE_BYTES = 4L * 1024 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Thrown when there isn't enough storage to extract a game, even with the cache emptied.
+     */
+    public static final class NotEnoughSpaceException extends IOException {
+        private final long mNeededBytes;
+
+        NotEnoughSpaceException(String path, long neededBytes, long availableBytes) {
+            super("Extracting " + path + " needs " + neededBytes + " bytes, only " +
+                    availableBytes + " are available");
+            mNeededBytes = neededBytes;
+        }
+
+        public long getNeededBytes() {
+            return mNeededBytes;
+        }
+    }
+
+    /**
+     * Thrown when a game is larger than the whole cache.
+     */
+    public static final class GameTooLargeException extends IOException {
+        GameTooLargeException(String path, long neededBytes) {
+            super("Extracting " + path + " needs " + neededBytes + " bytes, the cache only holds " +
+                    MAX_CACHE_BYTES);
+        }
+
+        public long getMaxBytes() {
+            return MAX_CACHE_BYTES;
+        }
+    }
+
+    private ArchiveGameCache() {
+        // Disallows instantiation.
+    }
+
+    public static boolean isArchiveEntry(String path) {
+        return path.contains(ENTRY_SEPARATOR);
+    }
+
+    public static String getEntryPath(String archivePath, String entryName) {
+        return archivePath + ENTRY_SEPARATOR + entryName;
+    }
+
+    /**
+     * Extracts a game from its archive, unless it already was since the archive last changed.
+     *
+     * @param path The game's path in the library, pointing into an archive.
+     * @return The path of the extracted game.
+     * @throws GameTooLargeException   If the game is larger than the whole cache.
+     * @throws NotEnoughSpaceException If the game doesn't fit onto the storage.
+     * @throws InterruptedIOException  If the thread was interrupted during the extraction.
+     */
+    @WorkerThread
+    public static synchronized String extract(String path) throws IOException {
+        int separator = path.indexOf(ENTRY_SEPARATOR);
+        String archivePath = path.substring(0, separator);
+        String entryName = path.substring(separator + ENTRY_SEPARATOR.length());
+
+        FileFingerprint fingerprint = FileFingerprint.of(archivePath);
+        if (fingerprint == null) {
+            throw new IOException("Archive is not accessible: " + archivePath);
+        }
+
+        File directory = getCacheDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        // Named after the game's path, so its copies can be found by it, and the archive's
+        // version, so a changed archive is extracted again. The file name is kept, since the
+        // extension tells the emulator what kind of file it is.
+        String prefix = getFileNamePrefix(path);
+        File cachedGame = new File(directory, prefix + fingerprint.getSize() + "_" +
+                fingerprint.getLastModified() + "_" +
+                entryName.substring(entryName.lastIndexOf('/') + 1));
+        if (cachedGame.isFile()) {
+            // Marks it as recently used.
+            cachedGame.setLastModified(System.currentTimeMillis());
+            return cachedGame.getPath();
+        }
+
+        try (ZipFile archive = new ZipFile(archivePath)) {
+            ZipEntry entry = archive.getEntry(entryName);
+            if (entry == null) {
+                throw new IOException("No " + entryName + " in " + archivePath);
+            }
+
+            // The local header may leave the size out, the central directory always has it.
+            long size = getUncompressedSize(archivePath, entryName);
+            if (size > MAX_CACHE_BYTES) {
+                throw new GameTooLargeException(path, size);
+            }
+
+            // Copies of older versions of the archive won't be launched again.
+            deleteCopies(directory, prefix);
+            makeRoom(directory, path, size);
+
+            Log.info("[ArchiveGameCache] Extracting " + path);
+            File tempFile = new File(directory, cachedGame.getName() + ".tmp");
+            try (InputStream input = archive.getInputStream(entry);
+                 OutputStream output = new FileOutputStream(tempFile)) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Extracting " + path + " was cancelled");
+                    }
+                    output.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                tempFile.delete();
+                throw e;
+            }
+
+            if (!tempFile.renameTo(cachedGame)) {
+                tempFile.delete();
+                throw new IOException("Can't move the extracted game to " + cachedGame);
+            }
+        }
+        return cachedGame.getPath();
+    }
+
+    /**
+     * Deletes the extracted copies of a game that left the library. Doesn't wait for an
+     * extraction that is running, which may take minutes, to finish.
+     *
+     * @param path The game's path in the library, pointing into an archive.
+     */
+    @WorkerThread
+    public static void remove(String path) {
+        deleteCopies(getCacheDirectory(), getFileNamePrefix(path));
+    }
+
+    private static void deleteCopies(File directory, String prefix) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix));
+        if (files != null) {
+            for (File file : files) {
+                if (file.delete()) {
+                    Log.debug("[ArchiveGameCache] Deleted " + file.getName());
+                }
+            }
+        }
+    }
+
+    private static String getFileNamePrefix(String path) {
+        return hash(path) + "_";
+    }
+
+    private static long getUncompressedSize(String archivePath, String entryName)
+            throws IOException {
+        for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(new File(archivePath))) {
+            if (entry.name.equals(entryName)) {
+                return entry.size;
+            }
+        }
+        throw new IOException("No " + entryName + " in " + archivePath);
+    }
+
+    /**
+     * Deletes the least recently launched games until a game of the given size fits, both into
+     * the cache and onto the storage.
+     *
+     * @throws NotEnoughSpaceException If the game wouldn't fit even with the cache emptied, in
+     *                                 which case nothing is deleted.
+     */
+    private static void makeRoom(File directory, String path, long neededBytes)
+            throws NotEnoughSpaceException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+
+        long usedBytes = 0;
+        for (File file : files) {
+            usedBytes += file.length();
+        }
+
+        long usableBytes = directory.getUsableSpace();
+        if (usableBytes + usedBytes < neededBytes) {
+            throw new NotEnoughSpaceException(path, neededBytes, usableBytes + usedBytes);
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (usedBytes + neededBytes <= MAX_CACHE_BYTES && usableBytes >= neededBytes) {
+                break;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                Log.debug("[ArchiveGameCache] Evicted " + file.getName());
+                usedBytes -= length;
+                usableBytes += length;
+            }
+        }
+
+        if (usableBytes < neededBytes) {
+            // Some of the cache couldn't be deleted.
+            throw new NotEnoughSpaceException(path, neededBytes, usableBytes);
+        }
+    }
+
+    private static File getCacheDirectory() {
+        return new File(CitraApplication.getAppContext().getCacheDir(), DIRECTORY_NAME);
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device supports SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.citra.citra_emu.utils;
 
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
 
 import androidx.annotation.Nullable;
@@ -16,6 +17,15 @@ import java.io.File;
 import java.util.List;
 
 public final class FileBrowserHelper {
+    /**
+     * @return Whether shared storage can only be reached through the Storage Access Framework,
+     * rather than as files.
+     */
+    public static boolean isScopedStorage() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q &&
+                !Environment.isExternalStorageLegacy();
+    }
+
     public static Intent createDirectoryPickerIntent(AppCompatActivity activity, int title,
                                                      List<String> extensions) {
         Intent i = new Intent(activity, CustomFilePickerActivity.class);
@@ -0,0 +1,206 @@
+package org.citra.citra_emu.utils;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import org.citra.citra_emu.CitraApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The icons of every game in the library, packed into one memory-mapped file of fixed-size
+ * slots. Library scans assign each game a slot, recorded in the games table, and write its
+ * icon there; the game grid copies icons straight out of the mapping.
+ * <p>
+ * The file only ever grows, so a mapping handed out earlier never points past its end. Slots
+ * freed by removed games are reused by the next games a scan adds.
+ */
+public final class GameIconAtlas {
+    public static final int ICON_SIZE = 48;
+    // Icons are stored as raw RGB_565 pixels.
+    public static final int SLOT_BYTES = ICON_SIZE * ICON_SIZE * 2;
+    public static final int NO_SLOT = -1;
+
+    private static final String FILE_NAME = "game_icons.atlas";
+    // The file grows in chunks, so a scan doesn't have to remap it for every new game.
+    private static final int SLOTS_PER_CHUNK = 256;
+
+    private static FileChannel sChannel;
+    private static MappedByteBuffer sMapping;
+
+    // Only touched on the main thread.
+    private static ByteBuffer sReadBuffer;
+
+    private GameIconAtlas() {
+        // Disallows instantiation.
+    }
+
+    /**
+     * Copies an icon out of the atlas without allocating.
+     *
+     * @param slot   The slot recorded for the game.
+     * @param bitmap A mutable 48x48 RGB_565 bitmap.
+     * @return false if the slot doesn't exist.
+     */
+    @MainThread
+    public static boolean copyIcon(int slot, Bitmap bitmap) {
+        if (slot < 0) {
+            return false;
+        }
+
+        int end = (slot + 1) * SLOT_BYTES;
+        if (sReadBuffer == null || sReadBuffer.capacity() < end) {
+            MappedByteBuffer mapping = getMapping(slot + 1, false);
+            if (mapping == null) {
+                return false;
+            }
+            sReadBuffer = mapping.duplicate();
+        }
+
+        sReadBuffer.limit(end);
+        sReadBuffer.position(end - SLOT_BYTES);
+        bitmap.copyPixelsFromBuffer(sReadBuffer);
+        return true;
+    }
+
+    /**
+     * Maps the atlas and reads it into memory ahead of time, so the game grid can copy icons out
+     * of it without waiting for storage.
+     */
+    public static void prefetch() {
+        MappedByteBuffer mapping = getMapping(0, false);
+        if (mapping != null) {
+            mapping.load();
+        }
+    }
+
+    /**
+     * Starts assigning slots for a library scan. Only one editor may be in use at a time.
+     *
+     * @param slots The slot of every game that has one, keyed by path.
+     */
+    public static Editor edit(Map<String, Integer> slots) {
+        return new Editor(slots);
+    }
+
+    /**
+     * @param grow Whether to extend the file if it doesn't have enough slots yet.
+     * @return A mapping covering at least the given number of slots, or null if there is none.
+     */
+    @Nullable
+    private static synchronized MappedByteBuffer getMapping(int slotCount, boolean grow) {
+        long neededSize = (long) slotCount * SLOT_BYTES;
+        if (sMapping != null && sMapping.capacity() >= neededSize) {
+            return sMapping;
+        }
+
+        try {
+            if (sChannel == null) {
+                File file = new File(CitraApplication.getAppContext().getFilesDir(), FILE_NAME);
+                sChannel = new RandomAccessFile(file, "rw").getChannel();
+            }
+
+            long size = sChannel.size();
+            if (size < neededSize) {
+                if (!grow) {
+                    return null;
+                }
+
+                long chunkSize = (long) SLOTS_PER_CHUNK * SLOT_BYTES;
+                size = (neededSize + chunkSize - 1) / chunkSize * chunkSize;
+            }
+
+            // Mapping past the end of the file extends it.
+            sMapping = sChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return sMapping;
+        } catch (IOException e) {
+            Log.error("[GameIconAtlas] Failed to map the icon atlas: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes icons into the atlas during a library scan.
+     */
+    public static final class Editor {
+        private final Map<String, Integer> mSlots;
+        private final BitSet mUsedSlots = new BitSet();
+
+        private Editor(Map<String, Integer> slots) {
+            mSlots = new HashMap<>(slots);
+            for (int slot : slots.values()) {
+                mUsedSlots.set(slot);
+            }
+        }
+
+        /**
+         * Stores the icon of a game, in the slot it already has if there is one.
+         *
+         * @param icon The icon's RGB_565 pixels. They are consumed from its position onwards.
+         * @return The game's slot, or {@link #NO_SLOT} if the icon couldn't be stored.
+         */
+        public int put(String path, ByteBuffer icon) {
+            if (icon.remaining() != SLOT_BYTES) {
+                return NO_SLOT;
+            }
+
+            Integer slot = mSlots.get(path);
+            if (slot == null) {
+                slot = mUsedSlots.nextClearBit(0);
+            }
+
+            MappedByteBuffer mapping = getMapping(slot + 1, true);
+            if (mapping == null) {
+                return NO_SLOT;
+            }
+
+            ByteBuffer target = mapping.duplicate();
+            target.position(slot * SLOT_BYTES);
+            target.put(icon);
+
+            mUsedSlots.set(slot);
+            mSlots.put(path, slot);
+            return slot;
+        }
+
+        /**
+         * Hands a game's slot over to the same game at another path.
+         */
+        public void rename(String oldPath, String newPath) {
+            Integer slot = mSlots.remove(oldPath);
+            if (slot != null) {
+                mSlots.put(newPath, slot);
+            }
+        }
+
+        /**
+         * Frees the slot of a game that left the library.
+         */
+        public void remove(String path) {
+            Integer slot = mSlots.remove(path);
+            if (slot != null) {
+                mUsedSlots.clear(slot);
+            }
+        }
+
+        /**
+         * Flushes the icons written so far to storage.
+         */
+        public void close() {
+            MappedByteBuffer mapping = getMapping(0, false);
+            if (mapping != null) {
+                mapping.force();
+            }
+        }
+    }
+}
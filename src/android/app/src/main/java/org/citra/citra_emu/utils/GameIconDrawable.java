@@ -0,0 +1,88 @@
+package org.citra.citra_emu.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Draws a game icon with rounded corners, scaled to fit its bounds. The icon is held in a bitmap
+ * owned by the drawable, which a recycled view refills for every game it shows, so binding a
+ * game never allocates. Rounding is done by the shader at draw time, matching what
+ * {@link PicassoRoundedCornersTransformation} does to a loaded bitmap.
+ */
+public final class GameIconDrawable extends Drawable {
+    private static final float CORNER_RADIUS = 10;
+
+    private final Bitmap mIcon = Bitmap.createBitmap(GameIconAtlas.ICON_SIZE,
+            GameIconAtlas.ICON_SIZE, Bitmap.Config.RGB_565);
+    private final BitmapShader mShader =
+            new BitmapShader(mIcon, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Matrix mShaderMatrix = new Matrix();
+    private final RectF mIconBounds = new RectF();
+
+    public GameIconDrawable() {
+        mPaint.setShader(mShader);
+    }
+
+    /**
+     * Shows the icon in the given atlas slot.
+     *
+     * @return false if the slot doesn't exist, in which case the drawable shouldn't be shown.
+     */
+    public boolean setIcon(int slot) {
+        if (!GameIconAtlas.copyIcon(slot, mIcon)) {
+            return false;
+        }
+
+        invalidateSelf();
+        return true;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        // Scale the icon to fit, centered, like ImageView.ScaleType.FIT_CENTER.
+        float scale = Math.min(bounds.width(), bounds.height()) / (float) GameIconAtlas.ICON_SIZE;
+        float size = GameIconAtlas.ICON_SIZE * scale;
+        float left = bounds.left + (bounds.width() - size) / 2;
+        float top = bounds.top + (bounds.height() - size) / 2;
+
+        mIconBounds.set(left, top, left + size, top + size);
+        mShaderMatrix.setScale(scale, scale);
+        mShaderMatrix.postTranslate(left, top);
+        mShader.setLocalMatrix(mShaderMatrix);
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        canvas.drawRoundRect(mIconBounds, CORNER_RADIUS, CORNER_RADIUS, mPaint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -8,8 +8,12 @@ import com.squareup.picasso.RequestHandler;
 
 import org.citra.citra_emu.NativeLibrary;
 
-import java.nio.IntBuffer;
+import java.io.IOException;
 
+/**
+ * Reads the icons of games that aren't in the {@link GameIconAtlas}, which only happens until
+ * the next library scan has put them there, or for games without an icon.
+ */
 public class GameIconRequestHandler extends RequestHandler {
     @Override
     public boolean canHandleRequest(Request data) {
@@ -17,11 +21,16 @@ public class GameIconRequestHandler extends RequestHandler {
     }
 
     @Override
-    public Result load(Request request, int networkPolicy) {
+    public Result load(Request request, int networkPolicy) throws IOException {
         String url = request.uri.getHost() + request.uri.getPath();
-        int[] vector = NativeLibrary.GetIcon(url);
-        Bitmap bitmap = Bitmap.createBitmap(48, 48, Bitmap.Config.RGB_565);
-        bitmap.copyPixelsFromBuffer(IntBuffer.wrap(vector));
+
+        // The native loader writes straight into the bitmap Picasso keeps.
+        Bitmap bitmap = Bitmap.createBitmap(GameIconAtlas.ICON_SIZE, GameIconAtlas.ICON_SIZE,
+                Bitmap.Config.RGB_565);
+        if (!NativeLibrary.GetIconIntoBitmap(url, bitmap)) {
+            throw new IOException("Game has no icon: " + url);
+        }
+
         return new Result(bitmap, Picasso.LoadedFrom.DISK);
     }
 }
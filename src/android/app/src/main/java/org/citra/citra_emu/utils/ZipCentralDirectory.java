@@ -0,0 +1,161 @@
+package org.citra.citra_emu.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists the files in a zip archive by reading only its central directory, which sits at the end
+ * of the archive. Nothing is decompressed, and the data of the files is never touched, so even
+ * archives of several gigabytes are listed in a few page reads. Zip64 archives are supported.
+ */
+public final class ZipCentralDirectory {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ENTRY_SIGNATURE = 0x02014b50;
+    private static final int ENTRY_SIZE = 46;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    // Stored in place of a value that only fits into the Zip64 fields.
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    /**
+     * A file in the archive.
+     */
+    public static final class Entry {
+        public final String name;
+        public final long size;
+        public final long compressedSize;
+
+        Entry(String name, long size, long compressedSize) {
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+        }
+    }
+
+    private ZipCentralDirectory() {
+        // Disallows instantiation.
+    }
+
+    /**
+     * @return Every file in the archive, leaving out directories.
+     * @throws IOException If the archive can't be read or isn't a zip archive.
+     */
+    public static List<Entry> read(File archive) throws IOException {
+        try (FileChannel channel = new FileInputStream(archive).getChannel()) {
+            long archiveSize = channel.size();
+            long tailSize = Math.min(archiveSize, ZIP64_LOCATOR_SIZE + END_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = map(channel, archiveSize - tailSize, tailSize);
+
+            int end = findEnd(tail);
+            long entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & ZIP64_MARKER;
+            long directoryOffset = tail.getInt(end + 16) & ZIP64_MARKER;
+
+            if (entryCount == 0xFFFF || directorySize == ZIP64_MARKER ||
+                    directoryOffset == ZIP64_MARKER) {
+                int locator = end - ZIP64_LOCATOR_SIZE;
+                if (locator < 0 || tail.getInt(locator) != ZIP64_LOCATOR_SIGNATURE) {
+                    throw new IOException("Missing Zip64 end of central directory locator");
+                }
+
+                ByteBuffer zip64End = map(channel, tail.getLong(locator + 8), ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException("Bad Zip64 end of central directory");
+                }
+                entryCount = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+
+            return readEntries(map(channel, directoryOffset, directorySize), entryCount);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated central directory", e);
+        }
+    }
+
+    private static List<Entry> readEntries(ByteBuffer directory, long entryCount)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (long i = 0; i < entryCount; i++) {
+            int entry = directory.position();
+            if (directory.remaining() < ENTRY_SIZE || directory.getInt(entry) != ENTRY_SIGNATURE) {
+                throw new IOException("Bad central directory entry");
+            }
+
+            long compressedSize = directory.getInt(entry + 20) & ZIP64_MARKER;
+            long size = directory.getInt(entry + 24) & ZIP64_MARKER;
+            int nameLength = directory.getShort(entry + 28) & 0xFFFF;
+            int extraLength = directory.getShort(entry + 30) & 0xFFFF;
+            int commentLength = directory.getShort(entry + 32) & 0xFFFF;
+
+            byte[] name = new byte[nameLength];
+            directory.position(entry + ENTRY_SIZE);
+            directory.get(name);
+
+            // Sizes too large for the entry itself are kept in its Zip64 extra field, in this order.
+            if (size == ZIP64_MARKER || compressedSize == ZIP64_MARKER) {
+                int extra = directory.position();
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = directory.getShort(extra) & 0xFFFF;
+                    int dataSize = directory.getShort(extra + 2) & 0xFFFF;
+                    if (id == ZIP64_EXTRA_ID) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MARKER) {
+                            size = directory.getLong(field);
+                            field += Long.BYTES;
+                        }
+                        if (compressedSize == ZIP64_MARKER) {
+                            compressedSize = directory.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + dataSize;
+                }
+            }
+            directory.position(entry + ENTRY_SIZE + nameLength + extraLength + commentLength);
+
+            // Names are UTF-8 in every archive made in the last decade, and ASCII in most others.
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            if (!entryName.endsWith("/")) {
+                entries.add(new Entry(entryName, size, compressedSize));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return The position of the end of central directory record. It is searched for from the
+     * end, since it is followed by a comment of unknown length.
+     */
+    private static int findEnd(ByteBuffer tail) throws IOException {
+        for (int position = tail.limit() - END_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_SIGNATURE &&
+                    position + END_SIZE + (tail.getShort(position + 20) & 0xFFFF) == tail.limit()) {
+                return position;
+            }
+        }
+        throw new IOException("Not a zip archive");
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || size > Integer.MAX_VALUE || offset + size > channel.size()) {
+            throw new IOException("Central directory out of bounds");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -7,6 +7,7 @@ import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.citra.citra_emu.R;
+import org.citra.citra_emu.utils.GameIconDrawable;
 
 /**
  * A simple class that stores references to views so that the GameAdapter doesn't need to
@@ -15,6 +16,8 @@ import org.citra.citra_emu.R;
 public class GameViewHolder extends RecyclerView.ViewHolder {
     private View itemView;
     public ImageView imageIcon;
+    // Reused for every game this holder shows.
+    public final GameIconDrawable iconDrawable = new GameIconDrawable();
     public TextView textGameTitle;
     public TextView textCompany;
     public TextView textFileName;
@@ -24,7 +27,6 @@ public class GameViewHolder extends RecyclerView.ViewHolder {
     // TODO Not need any of this stuff. Currently only the properties dialog needs it.
     public String path;
     public String title;
-    public String description;
     public String regions;
     public String company;
 
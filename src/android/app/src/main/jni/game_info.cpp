@@ -51,56 +51,25 @@ std::vector<u8> GetSMDHData(std::string physical_name) {
     return smdh;
 }
 
-std::u16string GetTitle(std::string physical_name) {
-    Loader::SMDH::TitleLanguage language = Loader::SMDH::TitleLanguage::English;
-    std::vector<u8> smdh_data = GetSMDHData(physical_name);
+namespace {
 
-    if (!Loader::IsValidSMDH(smdh_data)) {
-        // SMDH is not valid, return null
-        return {};
-    }
-
-    Loader::SMDH smdh;
-    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
+std::u16string GetTitle(const Loader::SMDH& smdh) {
+    Loader::SMDH::TitleLanguage language = Loader::SMDH::TitleLanguage::English;
 
     // Get the title from SMDH in UTF-16 format
-    std::u16string title{
-        reinterpret_cast<char16_t*>(smdh.titles[static_cast<int>(language)].long_title.data())};
-
-    return title;
+    return reinterpret_cast<const char16_t*>(
+        smdh.titles[static_cast<int>(language)].long_title.data());
 }
 
-std::u16string GetPublisher(std::string physical_name) {
+std::u16string GetPublisher(const Loader::SMDH& smdh) {
     Loader::SMDH::TitleLanguage language = Loader::SMDH::TitleLanguage::English;
-    std::vector<u8> smdh_data = GetSMDHData(physical_name);
-
-    if (!Loader::IsValidSMDH(smdh_data)) {
-        // SMDH is not valid, return null
-        return {};
-    }
-
-    Loader::SMDH smdh;
-    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
 
     // Get the Publisher's name from SMDH in UTF-16 format
-    char16_t* publisher;
-    publisher =
-        reinterpret_cast<char16_t*>(smdh.titles[static_cast<int>(language)].publisher.data());
-
-    return publisher;
+    return reinterpret_cast<const char16_t*>(
+        smdh.titles[static_cast<int>(language)].publisher.data());
 }
 
-std::string GetRegions(std::string physical_name) {
-    std::vector<u8> smdh_data = GetSMDHData(physical_name);
-
-    if (!Loader::IsValidSMDH(smdh_data)) {
-        // SMDH is not valid, return "Invalid region"
-        return "Invalid region";
-    }
-
-    Loader::SMDH smdh;
-    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
-
+std::string GetRegions(const Loader::SMDH& smdh) {
     using GameRegion = Loader::SMDH::GameRegion;
     static const std::map<GameRegion, const char*> regions_map = {
         {GameRegion::Japan, "Japan"},   {GameRegion::NorthAmerica, "North America"},
@@ -131,6 +100,50 @@ std::string GetRegions(std::string physical_name) {
     return result;
 }
 
+} // Anonymous namespace
+
+std::u16string GetTitle(std::string physical_name) {
+    std::vector<u8> smdh_data = GetSMDHData(physical_name);
+
+    if (!Loader::IsValidSMDH(smdh_data)) {
+        // SMDH is not valid, return null
+        return {};
+    }
+
+    Loader::SMDH smdh;
+    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
+
+    return GetTitle(smdh);
+}
+
+std::u16string GetPublisher(std::string physical_name) {
+    std::vector<u8> smdh_data = GetSMDHData(physical_name);
+
+    if (!Loader::IsValidSMDH(smdh_data)) {
+        // SMDH is not valid, return null
+        return {};
+    }
+
+    Loader::SMDH smdh;
+    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
+
+    return GetPublisher(smdh);
+}
+
+std::string GetRegions(std::string physical_name) {
+    std::vector<u8> smdh_data = GetSMDHData(physical_name);
+
+    if (!Loader::IsValidSMDH(smdh_data)) {
+        // SMDH is not valid, return "Invalid region"
+        return "Invalid region";
+    }
+
+    Loader::SMDH smdh;
+    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
+
+    return GetRegions(smdh);
+}
+
 std::vector<u16> GetIcon(std::string physical_name) {
     std::vector<u8> smdh_data = GetSMDHData(physical_name);
 
@@ -147,4 +160,25 @@ std::vector<u16> GetIcon(std::string physical_name) {
     return icon_data;
 }
 
+GameMetadata GetGameMetadata(std::string physical_name) {
+    GameMetadata metadata;
+    // Read the SMDH once and derive every field from it, rather than re-opening the ROM per field.
+    std::vector<u8> smdh_data = GetSMDHData(physical_name);
+
+    if (!Loader::IsValidSMDH(smdh_data)) {
+        metadata.regions = "Invalid region";
+        return metadata;
+    }
+
+    Loader::SMDH smdh;
+    memcpy(&smdh, smdh_data.data(), sizeof(Loader::SMDH));
+
+    metadata.title = GetTitle(smdh);
+    metadata.publisher = GetPublisher(smdh);
+    metadata.regions = GetRegions(smdh);
+    // Always get a 48x48(large) icon
+    metadata.icon = smdh.GetIcon(true);
+    return metadata;
+}
+
 } // namespace GameInfo
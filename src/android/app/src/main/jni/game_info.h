@@ -4,10 +4,18 @@
 
 #include <cstring>
 #include <string>
+#include <vector>
 
 #include "common/common_types.h"
 
 namespace GameInfo {
+struct GameMetadata {
+    std::u16string title;
+    std::u16string publisher;
+    std::string regions;
+    std::vector<u16> icon;
+};
+
 std::vector<u8> GetSMDHData(std::string physical_name);
 
 std::u16string GetTitle(std::string physical_name);
@@ -17,4 +25,6 @@ std::u16string GetPublisher(std::string physical_name);
 std::string GetRegions(std::string physical_name);
 
 std::vector<u16> GetIcon(std::string physical_name);
+
+GameMetadata GetGameMetadata(std::string physical_name);
 } // namespace GameInfo
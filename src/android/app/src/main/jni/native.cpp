@@ -3,10 +3,12 @@
 // Refer to the license.txt file included.
 
 #include <algorithm>
+#include <cstring>
 #include <iostream>
 #include <regex>
 #include <thread>
 
+#include <android/bitmap.h>
 #include <android/native_window_jni.h>
 
 #include "audio_core/dsp_interface.h"
@@ -57,6 +59,64 @@ std::mutex paused_mutex;
 std::mutex running_mutex;
 std::condition_variable running_cv;
 
+// Games are listed with their large SMDH icon.
+constexpr u32 ICON_SIZE = 48;
+constexpr std::size_t ICON_BYTES = ICON_SIZE * ICON_SIZE * sizeof(u16);
+
+// Layout of the fixed-size records written by GetGameMetadataBatch, mirrored by
+// NativeLibrary.GameMetadataBatch. All values are in native byte order.
+// The capacities fit the longest SMDH title and publisher, converted from UTF-16.
+constexpr std::size_t METADATA_FLAGS_OFFSET = 0;
+constexpr std::size_t METADATA_TITLE_LENGTH_OFFSET = 2;
+constexpr std::size_t METADATA_COMPANY_LENGTH_OFFSET = 4;
+constexpr std::size_t METADATA_REGIONS_LENGTH_OFFSET = 6;
+constexpr std::size_t METADATA_TITLE_OFFSET = 8;
+constexpr std::size_t METADATA_TITLE_CAPACITY = 384;
+constexpr std::size_t METADATA_COMPANY_OFFSET = METADATA_TITLE_OFFSET + METADATA_TITLE_CAPACITY;
+constexpr std::size_t METADATA_COMPANY_CAPACITY = 192;
+constexpr std::size_t METADATA_REGIONS_OFFSET =
+    METADATA_COMPANY_OFFSET + METADATA_COMPANY_CAPACITY;
+constexpr std::size_t METADATA_REGIONS_CAPACITY = 128;
+constexpr std::size_t METADATA_ICON_OFFSET = METADATA_REGIONS_OFFSET + METADATA_REGIONS_CAPACITY;
+constexpr std::size_t METADATA_RECORD_SIZE = METADATA_ICON_OFFSET + ICON_BYTES;
+constexpr u16 METADATA_HAS_ICON = 1;
+
+static_assert(METADATA_RECORD_SIZE == 5320, "NativeLibrary.GameMetadataBatch must be updated");
+
+/// Copies as much of the string as fits, without cutting a UTF-8 sequence in half.
+u16 PutMetadataString(u8* record, std::size_t offset, std::size_t capacity,
+                      const std::string& value) {
+    std::size_t length = std::min(value.size(), capacity);
+    while (length > 0 && length < value.size() &&
+           (static_cast<u8>(value[length]) & 0xC0) == 0x80) {
+        length--;
+    }
+    std::memcpy(record + offset, value.data(), length);
+    return static_cast<u16>(length);
+}
+
+void PutMetadataRecord(u8* record, const GameInfo::GameMetadata& game) {
+    const u16 title_length = PutMetadataString(record, METADATA_TITLE_OFFSET,
+                                               METADATA_TITLE_CAPACITY,
+                                               Common::UTF16ToUTF8(game.title));
+    const u16 company_length = PutMetadataString(record, METADATA_COMPANY_OFFSET,
+                                                 METADATA_COMPANY_CAPACITY,
+                                                 Common::UTF16ToUTF8(game.publisher));
+    const u16 regions_length = PutMetadataString(record, METADATA_REGIONS_OFFSET,
+                                                 METADATA_REGIONS_CAPACITY, game.regions);
+
+    u16 flags = 0;
+    if (game.icon.size() * sizeof(u16) == ICON_BYTES) {
+        std::memcpy(record + METADATA_ICON_OFFSET, game.icon.data(), ICON_BYTES);
+        flags |= METADATA_HAS_ICON;
+    }
+
+    std::memcpy(record + METADATA_FLAGS_OFFSET, &flags, sizeof(u16));
+    std::memcpy(record + METADATA_TITLE_LENGTH_OFFSET, &title_length, sizeof(u16));
+    std::memcpy(record + METADATA_COMPANY_LENGTH_OFFSET, &company_length, sizeof(u16));
+    std::memcpy(record + METADATA_REGIONS_LENGTH_OFFSET, &regions_length, sizeof(u16));
+}
+
 } // Anonymous namespace
 
 static std::string GetJString(JNIEnv* env, jstring jstr) {
@@ -499,6 +559,75 @@ jstring Java_org_citra_citra_1emu_NativeLibrary_GetCompany(JNIEnv* env,
     return env->NewStringUTF(Common::UTF16ToUTF8(publisher).data());
 }
 
+jboolean Java_org_citra_citra_1emu_NativeLibrary_GetIconIntoBitmap(JNIEnv* env,
+                                                                   [[maybe_unused]] jclass clazz,
+                                                                   jstring j_file,
+                                                                   jobject j_bitmap) {
+    const std::vector<u16> icon = GameInfo::GetIcon(GetJString(env, j_file));
+    if (icon.size() != ICON_SIZE * ICON_SIZE) {
+        return false;
+    }
+
+    AndroidBitmapInfo info;
+    if (AndroidBitmap_getInfo(env, j_bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS ||
+        info.format != ANDROID_BITMAP_FORMAT_RGB_565 || info.width != ICON_SIZE ||
+        info.height != ICON_SIZE) {
+        LOG_ERROR(Frontend, "Icons can only be copied into 48x48 RGB_565 bitmaps");
+        return false;
+    }
+
+    void* pixels;
+    if (AndroidBitmap_lockPixels(env, j_bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        return false;
+    }
+    for (u32 row = 0; row < ICON_SIZE; row++) {
+        std::memcpy(static_cast<u8*>(pixels) + row * info.stride, &icon[row * ICON_SIZE],
+                    ICON_SIZE * sizeof(u16));
+    }
+    AndroidBitmap_unlockPixels(env, j_bitmap);
+
+    return true;
+}
+
+jboolean Java_org_citra_citra_1emu_NativeLibrary_GetGameMetadataBatch(JNIEnv* env,
+                                                                     [[maybe_unused]] jclass clazz,
+                                                                     jobjectArray j_filenames,
+                                                                     jobject j_result) {
+    const jsize count{env->GetArrayLength(j_filenames)};
+    u8* const result = static_cast<u8*>(env->GetDirectBufferAddress(j_result));
+    if (!result || env->GetDirectBufferCapacity(j_result) <
+                       static_cast<jlong>(count) * static_cast<jlong>(METADATA_RECORD_SIZE)) {
+        LOG_ERROR(Frontend, "Metadata buffer too small for {} games", count);
+        return false;
+    }
+
+    // Every Java string is converted up front, so the parsing threads never touch the JNIEnv.
+    std::vector<std::string> paths;
+    for (jsize idx{0}; idx < count; ++idx) {
+        const auto j_filename = static_cast<jstring>(env->GetObjectArrayElement(j_filenames, idx));
+        paths.emplace_back(GetJString(env, j_filename));
+        env->DeleteLocalRef(j_filename);
+    }
+
+    std::atomic<jsize> idx{count};
+    std::vector<std::thread> threads;
+    std::generate_n(std::back_inserter(threads),
+                    std::min<jsize>(std::max(std::thread::hardware_concurrency(), 1u), count),
+                    [&] {
+                        return std::thread{[&idx, &paths, result] {
+                            jsize work_idx;
+                            while ((work_idx = --idx) >= 0) {
+                                PutMetadataRecord(result + work_idx * METADATA_RECORD_SIZE,
+                                                  GameInfo::GetGameMetadata(paths[work_idx]));
+                            }
+                        }};
+                    });
+    for (auto& thread : threads)
+        thread.join();
+
+    return true;
+}
+
 jstring Java_org_citra_citra_1emu_NativeLibrary_GetGitRevision(JNIEnv* env,
                                                                [[maybe_unused]] jclass clazz) {
     return nullptr;
@@ -64,6 +64,12 @@ JNIEXPORT jstring JNICALL Java_org_citra_citra_1emu_NativeLibrary_GetCompany(JNI
                                                                              jclass clazz,
                                                                              jstring j_filename);
 
+JNIEXPORT jboolean JNICALL Java_org_citra_citra_1emu_NativeLibrary_GetIconIntoBitmap(
+    JNIEnv* env, jclass clazz, jstring j_file, jobject j_bitmap);
+
+JNIEXPORT jboolean JNICALL Java_org_citra_citra_1emu_NativeLibrary_GetGameMetadataBatch(
+    JNIEnv* env, jclass clazz, jobjectArray j_filenames, jobject j_result);
+
 JNIEXPORT jstring JNICALL Java_org_citra_citra_1emu_NativeLibrary_GetGitRevision(JNIEnv* env,
                                                                                  jclass clazz);
 
@@ -0,0 +1,16 @@
+package org.citra.citra_emu;
+
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+/**
+ * Starts the app under Robolectric, which doesn't run the content provider that initializes
+ * WorkManager on devices. Tests select it with {@code @Config(application = ...)}.
+ */
+public class TestCitraApplication extends CitraApplication {
+    @Override
+    public void onCreate() {
+        // Scheduling the library indexer on startup needs WorkManager.
+        WorkManagerTestInitHelper.initializeTestWorkManager(this);
+        super.onCreate();
+    }
+}
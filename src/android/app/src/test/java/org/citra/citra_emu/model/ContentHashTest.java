@@ -0,0 +1,56 @@
+package org.citra.citra_emu.model;
+
+import org.citra.citra_emu.TestCitraApplication;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that files whose sampled blocks match are only taken to be copies if they are equal.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = TestCitraApplication.class)
+public class ContentHashTest {
+    // A 64 KiB header followed by enough data to be sampled rather than hashed in full.
+    private static final int SIZE = 320 * 1024;
+    // Past the header and the first sample, well before the second one.
+    private static final int UNSAMPLED_OFFSET = 64 * 1024 + 4 * 1024 + 100;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void patchedCopyMatchesTheHashButNotTheContents() throws IOException {
+        byte[] contents = new byte[SIZE];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) i;
+        }
+        File game = write("game.3ds", contents);
+        File copy = write("copy.3ds", contents);
+        contents[UNSAMPLED_OFFSET]++;
+        File patchedGame = write("patched.3ds", contents);
+
+        assertEquals(ContentHash.of(game.getPath()), ContentHash.of(patchedGame.getPath()));
+        assertTrue(ContentHash.sameContents(game.getPath(), copy.getPath()));
+        assertFalse(ContentHash.sameContents(game.getPath(), patchedGame.getPath()));
+    }
+
+    private File write(String name, byte[] contents) throws IOException {
+        File file = mTemporaryFolder.newFile(name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(contents);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,233 @@
+package org.citra.citra_emu.model;
+
+import android.Manifest;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsProvider;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.citra.citra_emu.NativeLibrary;
+import org.citra.citra_emu.TestCitraApplication;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Scans a library folder picked through the Storage Access Framework, served by a fake documents
+ * provider whose document IDs, like those of many real providers, say nothing about the name.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = TestCitraApplication.class)
+public class DocumentTreeScanTest {
+    private static final String AUTHORITY = "org.citra.citra_emu.test.documents";
+    private static final String ROOT_ID = "root";
+
+    // Document ID to display name, and the file each document is served from.
+    private static final Map<String, String> sNames = new LinkedHashMap<>();
+    private static final Map<String, File> sFiles = new HashMap<>();
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private GameDatabase mDatabaseHelper;
+
+    @Before
+    public void setUp() throws IOException {
+        sNames.clear();
+        sFiles.clear();
+        addDocument("msf:1", "Alpha.3ds");
+        addDocument("msf:2", "Beta.cci");
+
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        info.exported = true;
+        info.grantUriPermissions = true;
+        info.readPermission = Manifest.permission.MANAGE_DOCUMENTS;
+        info.writePermission = Manifest.permission.MANAGE_DOCUMENTS;
+        Robolectric.buildContentProvider(FakeDocumentsProvider.class).create(info);
+
+        DocumentTree.clearCache();
+        mDatabaseHelper = new GameDatabase(ApplicationProvider.getApplicationContext());
+    }
+
+    @Test
+    public void documentsScannedTogetherKeepTheirOwnIds() {
+        String treeUri = DocumentsContract.buildTreeDocumentUri(AUTHORITY, ROOT_ID).toString();
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        ContentValues folder = new ContentValues();
+        folder.put(GameDatabase.KEY_FOLDER_PATH, treeUri);
+        database.insert(GameDatabase.TABLE_NAME_FOLDERS, null, folder);
+
+        mDatabaseHelper.scanLibrary(database, null, false, new DescriptorPathSource(),
+                progress ->
+                {
+                });
+
+        Map<String, String> gameIds = new HashMap<>();
+        try (Cursor cursor = database.query(GameDatabase.TABLE_NAME_GAMES,
+                new String[]{GameDatabase.KEY_GAME_PATH, GameDatabase.KEY_GAME_ID,
+                        GameDatabase.KEY_GAME_DESCRIPTION, GameDatabase.KEY_GAME_TITLE,
+                        GameDatabase.KEY_GAME_FILE_NAME},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(0);
+                gameIds.put(path, cursor.getString(1));
+                // Not the descriptor path the game was read through.
+                assertEquals(path, cursor.getString(2));
+                // Without a title of its own, a game is named after its file.
+                assertEquals(cursor.getString(4), cursor.getString(3));
+            }
+        }
+
+        assertEquals(sNames.size(), gameIds.size());
+        for (Map.Entry<String, String> document : sNames.entrySet()) {
+            String path = DocumentsContract.buildDocumentUriUsingTree(
+                    DocumentsContract.buildTreeDocumentUri(AUTHORITY, ROOT_ID),
+                    document.getKey()).toString();
+            assertEquals(path, gameIds.get(path));
+            assertEquals(document.getValue(), getFileName(database, path));
+        }
+    }
+
+    private void addDocument(String documentId, String name) throws IOException {
+        File file = mTemporaryFolder.newFile(documentId.replace(':', '_'));
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[1024]);
+        }
+        sNames.put(documentId, name);
+        sFiles.put(documentId, file);
+    }
+
+    private static String getFileName(SQLiteDatabase database, String path) {
+        try (Cursor cursor = database.query(GameDatabase.TABLE_NAME_GAMES,
+                new String[]{GameDatabase.KEY_GAME_FILE_NAME}, GameDatabase.KEY_GAME_PATH + " = ?",
+                new String[]{path}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    /**
+     * Reports what the native loader reports for a ROM without a title: the path it was given,
+     * which for documents is the path of an open descriptor.
+     */
+    private static final class DescriptorPathSource implements LibraryScanner.MetadataSource {
+        @Override
+        public String[] getInstalledGamePaths() {
+            return new String[0];
+        }
+
+        @Override
+        public void read(String[] paths, NativeLibrary.GameMetadata[] metadata,
+                         ByteBuffer[] icons) {
+            for (int i = 0; i < paths.length; i++) {
+                NativeLibrary.GameMetadata game = new NativeLibrary.GameMetadata();
+                game.title = "";
+                game.description = paths[i];
+                game.gameId = paths[i];
+                game.regions = "";
+                game.company = "";
+                metadata[i] = game;
+            }
+        }
+    }
+
+    /**
+     * One folder holding the documents added by the test.
+     */
+    public static final class FakeDocumentsProvider extends DocumentsProvider {
+        private static final String[] DEFAULT_PROJECTION = {
+                DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                DocumentsContract.Document.COLUMN_SIZE,
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                DocumentsContract.Document.COLUMN_MIME_TYPE};
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor queryRoots(String[] projection) {
+            return new MatrixCursor(new String[]{DocumentsContract.Root.COLUMN_ROOT_ID});
+        }
+
+        @Override
+        public Cursor queryDocument(String documentId, String[] projection) {
+            MatrixCursor cursor = new MatrixCursor(resolve(projection));
+            if (ROOT_ID.equals(documentId)) {
+                addRow(cursor, ROOT_ID, "Games", 0, DocumentsContract.Document.MIME_TYPE_DIR);
+            } else if (sNames.containsKey(documentId)) {
+                addRow(cursor, documentId, sNames.get(documentId),
+                        sFiles.get(documentId).length(), "application/octet-stream");
+            }
+            return cursor;
+        }
+
+        @Override
+        public Cursor queryChildDocuments(String parentDocumentId, String[] projection,
+                                          String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(resolve(projection));
+            if (ROOT_ID.equals(parentDocumentId)) {
+                for (String documentId : sNames.keySet()) {
+                    addRow(cursor, documentId, sNames.get(documentId),
+                            sFiles.get(documentId).length(), "application/octet-stream");
+                }
+            }
+            return cursor;
+        }
+
+        @Override
+        public boolean isChildDocument(String parentDocumentId, String documentId) {
+            return ROOT_ID.equals(parentDocumentId) && sNames.containsKey(documentId);
+        }
+
+        @Override
+        public ParcelFileDescriptor openDocument(String documentId, String mode,
+                                                 CancellationSignal signal)
+                throws FileNotFoundException {
+            File file = sFiles.get(documentId);
+            if (file == null) {
+                throw new FileNotFoundException(documentId);
+            }
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        private static String[] resolve(String[] projection) {
+            return projection != null ? projection : DEFAULT_PROJECTION;
+        }
+
+        private static void addRow(MatrixCursor cursor, String documentId, String name,
+                                   long size, String mimeType) {
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            row.add(DocumentsContract.Document.COLUMN_DOCUMENT_ID, documentId);
+            row.add(DocumentsContract.Document.COLUMN_DISPLAY_NAME, name);
+            row.add(DocumentsContract.Document.COLUMN_SIZE, size);
+            row.add(DocumentsContract.Document.COLUMN_LAST_MODIFIED, 1000L);
+            row.add(DocumentsContract.Document.COLUMN_MIME_TYPE, mimeType);
+        }
+    }
+}
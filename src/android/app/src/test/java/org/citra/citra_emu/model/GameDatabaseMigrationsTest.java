@@ -0,0 +1,297 @@
+package org.citra.citra_emu.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.citra.citra_emu.TestCitraApplication;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Upgrades a database of each older schema version by one version, and checks that the stored
+ * games survive and the new columns, tables and indexes are there. A failed migration makes
+ * {@link GameDatabase#onUpgrade} rebuild the games table empty, so every test stores games first.
+ * <p>
+ * Each old schema is built from the first one that had migrations, by the migrations before it,
+ * the same way it came about on devices.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = TestCitraApplication.class)
+public class GameDatabaseMigrationsTest {
+    private static final int FIRST_VERSION = 2;
+
+    // The schema before any migrations, as version 2 created it.
+    private static final String SQL_CREATE_GAMES_V2 = "CREATE TABLE games(_id INTEGER PRIMARY KEY, "
+            + "path TEXT, title TEXT, description TEXT, regions TEXT, game_id TEXT, company TEXT)";
+    private static final String SQL_CREATE_FOLDERS_V2 =
+            "CREATE TABLE folders(_id INTEGER PRIMARY KEY, path TEXT UNIQUE)";
+
+    private GameDatabase mDatabaseHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabaseHelper = new GameDatabase(ApplicationProvider.getApplicationContext());
+        mDatabase = SQLiteDatabase.create(null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void upgradeFrom2To3() {
+        createSchema(2);
+        insertGame(1, "/games/a.3ds", "Alpha", "A");
+
+        upgrade(2);
+
+        assertGames("/games/a.3ds");
+        assertColumnsExist(GameDatabase.TABLE_NAME_GAMES, GameDatabase.KEY_GAME_SIZE,
+                GameDatabase.KEY_GAME_LAST_MODIFIED, GameDatabase.KEY_GAME_INODE);
+        assertNull(getString(GameDatabase.KEY_GAME_SIZE, "/games/a.3ds"));
+    }
+
+    @Test
+    public void upgradeFrom3To4KeepsTheNewestRowPerPathAndGameId() {
+        createSchema(3);
+        insertGame(1, "/games/a.3ds", "Alpha", "A");
+        insertGame(2, "/games/a.3ds", "Alpha", "A2");
+        insertGame(3, "/games/b.3ds", "Beta", "B");
+        insertGame(4, "/games/b-copy.3ds", "Beta", "B");
+        insertGame(5, "/games/c.3ds", "Gamma", "C");
+
+        upgrade(3);
+
+        assertGames("/games/a.3ds", "/games/b-copy.3ds", "/games/c.3ds");
+        assertEquals("A2", getString(GameDatabase.KEY_GAME_ID, "/games/a.3ds"));
+        assertIndexExists(GameDatabase.TABLE_NAME_GAMES + "_" + GameDatabase.KEY_GAME_PATH);
+        assertIndexExists(GameDatabase.TABLE_NAME_GAMES + "_" + GameDatabase.KEY_GAME_ID);
+
+        try {
+            insertGame(6, "/games/c.3ds", "Gamma", "C3");
+            fail("Paths must be unique");
+        } catch (SQLiteConstraintException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void upgradeFrom4To5ForgetsFileSizes() {
+        createSchema(4);
+        ContentValues values = gameValues(1, "/games/a.3ds", "Alpha", "A");
+        values.put(GameDatabase.KEY_GAME_SIZE, 1024);
+        values.put(GameDatabase.KEY_GAME_LAST_MODIFIED, 1000);
+        mDatabase.insertOrThrow(GameDatabase.TABLE_NAME_GAMES, null, values);
+
+        upgrade(4);
+
+        assertGames("/games/a.3ds");
+        assertColumnsExist(GameDatabase.TABLE_NAME_GAMES, GameDatabase.KEY_GAME_ICON_SLOT);
+        assertNull(getString(GameDatabase.KEY_GAME_SIZE, "/games/a.3ds"));
+        assertEquals("1000", getString(GameDatabase.KEY_GAME_LAST_MODIFIED, "/games/a.3ds"));
+    }
+
+    @Test
+    public void upgradeFrom5To6IndexesStoredGames() {
+        createSchema(5);
+        insertGame(1, "/games/a.3ds", "Legend of Alpha", "A");
+        insertGame(2, "/games/b.3ds", "Beta", "B");
+
+        upgrade(5);
+
+        assertGames("/games/a.3ds", "/games/b.3ds");
+        assertEquals(1, countMatches("alp*"));
+        assertEquals(1, countMatches("beta"));
+
+        // The triggers keep the index up to date from now on.
+        insertGame(3, "/games/c.3ds", "Alpine Gamma", "C");
+        assertEquals(2, countMatches("alp*"));
+    }
+
+    @Test
+    public void upgradeFrom6To7() {
+        createSchema(6);
+        insertGame(1, "/games/a.3ds", "Alpha", "A");
+
+        upgrade(6);
+
+        assertGames("/games/a.3ds");
+        assertIndexExists(GameDatabase.TABLE_NAME_GAMES + "_" + GameDatabase.KEY_GAME_TITLE);
+    }
+
+    @Test
+    public void upgradeFrom7To8() {
+        createSchema(7);
+        insertGame(1, "/games/a.3ds", "Alpha", "A");
+
+        upgrade(7);
+
+        assertGames("/games/a.3ds");
+        assertColumnsExist(GameDatabase.TABLE_NAME_GAMES, GameDatabase.KEY_GAME_CONTENT_HASH);
+        assertNull(getString(GameDatabase.KEY_GAME_CONTENT_HASH, "/games/a.3ds"));
+        assertColumnsExist(GameDatabase.TABLE_NAME_DUPLICATES, GameDatabase.KEY_GAME_PATH,
+                GameDatabase.KEY_GAME_CONTENT_HASH);
+        assertIndexExists(GameDatabase.TABLE_NAME_GAMES + "_" + GameDatabase.KEY_GAME_CONTENT_HASH);
+    }
+
+    @Test
+    public void upgradeFrom8To9() {
+        createSchema(8);
+        insertGame(1, "/games/a.3ds", "Alpha", "A");
+        ContentValues duplicate = new ContentValues();
+        duplicate.put(GameDatabase.KEY_GAME_PATH, "/games/a-copy.3ds");
+        duplicate.put(GameDatabase.KEY_GAME_CONTENT_HASH, 42);
+        mDatabase.insertOrThrow(GameDatabase.TABLE_NAME_DUPLICATES, null, duplicate);
+
+        upgrade(8);
+
+        assertGames("/games/a.3ds");
+        assertEquals("0", getString(GameDatabase.KEY_GAME_SCAN_GENERATION, "/games/a.3ds"));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase,
+                GameDatabase.TABLE_NAME_DUPLICATES,
+                GameDatabase.KEY_GAME_SCAN_GENERATION + " = 0"));
+        assertIndexExists(
+                GameDatabase.TABLE_NAME_GAMES + "_" + GameDatabase.KEY_GAME_SCAN_GENERATION);
+        assertIndexExists(
+                GameDatabase.TABLE_NAME_DUPLICATES + "_" + GameDatabase.KEY_GAME_SCAN_GENERATION);
+
+        // The recreated triggers still follow changes to indexed columns.
+        ContentValues title = new ContentValues();
+        title.put(GameDatabase.KEY_GAME_TITLE, "Omega");
+        mDatabase.update(GameDatabase.TABLE_NAME_GAMES, title, null, null);
+        assertEquals(0, countMatches("alpha"));
+        assertEquals(1, countMatches("omega"));
+    }
+
+    @Test
+    public void upgradeFrom9To10ReparsesDocuments() {
+        createSchema(9);
+        String documentPath = "content://com.android.externalstorage.documents/tree/primary%3AGames"
+                + "/document/primary%3AGames%2Fb.3ds";
+        ContentValues file = gameValues(1, "/games/a.3ds", "Alpha", "A");
+        file.put(GameDatabase.KEY_GAME_SIZE, 1024);
+        mDatabase.insertOrThrow(GameDatabase.TABLE_NAME_GAMES, null, file);
+        ContentValues document = gameValues(2, documentPath, "Beta", "B");
+        document.put(GameDatabase.KEY_GAME_SIZE, 2048);
+        mDatabase.insertOrThrow(GameDatabase.TABLE_NAME_GAMES, null, document);
+
+        upgrade(9);
+
+        assertGames("/games/a.3ds", documentPath);
+        assertColumnsExist(GameDatabase.TABLE_NAME_GAMES, GameDatabase.KEY_GAME_FILE_NAME);
+        assertNull(getString(GameDatabase.KEY_GAME_FILE_NAME, documentPath));
+        assertEquals("1024", getString(GameDatabase.KEY_GAME_SIZE, "/games/a.3ds"));
+        assertEquals("-1", getString(GameDatabase.KEY_GAME_SIZE, documentPath));
+    }
+
+    @Test
+    public void migratedSchemaMatchesNewSchema() {
+        createSchema(FIRST_VERSION);
+        assertTrue(GameDatabaseMigrations.migrate(mDatabase, FIRST_VERSION,
+                GameDatabase.DB_VERSION));
+
+        try (SQLiteDatabase created = SQLiteDatabase.create(null)) {
+            mDatabaseHelper.onCreate(created);
+            assertEquals(getColumns(created, GameDatabase.TABLE_NAME_GAMES),
+                    getColumns(mDatabase, GameDatabase.TABLE_NAME_GAMES));
+            assertEquals(getColumns(created, GameDatabase.TABLE_NAME_DUPLICATES),
+                    getColumns(mDatabase, GameDatabase.TABLE_NAME_DUPLICATES));
+        }
+    }
+
+    private void createSchema(int version) {
+        mDatabase.execSQL(SQL_CREATE_GAMES_V2);
+        mDatabase.execSQL(SQL_CREATE_FOLDERS_V2);
+        assertTrue(GameDatabaseMigrations.migrate(mDatabase, FIRST_VERSION, version));
+    }
+
+    private void upgrade(int oldVersion) {
+        mDatabaseHelper.onUpgrade(mDatabase, oldVersion, oldVersion + 1);
+    }
+
+    private static ContentValues gameValues(long id, String path, String title, String gameId) {
+        ContentValues values = new ContentValues();
+        values.put(GameDatabase.KEY_DB_ID, id);
+        values.put(GameDatabase.KEY_GAME_PATH, path);
+        values.put(GameDatabase.KEY_GAME_TITLE, title);
+        values.put(GameDatabase.KEY_GAME_DESCRIPTION, "");
+        values.put(GameDatabase.KEY_GAME_REGIONS, "Region free");
+        values.put(GameDatabase.KEY_GAME_ID, gameId);
+        values.put(GameDatabase.KEY_GAME_COMPANY, "Company");
+        return values;
+    }
+
+    private void insertGame(long id, String path, String title, String gameId) {
+        mDatabase.insertOrThrow(GameDatabase.TABLE_NAME_GAMES, null,
+                gameValues(id, path, title, gameId));
+    }
+
+    private void assertGames(String... paths) {
+        List<String> storedPaths = new ArrayList<>();
+        try (Cursor cursor = mDatabase.query(GameDatabase.TABLE_NAME_GAMES,
+                new String[]{GameDatabase.KEY_GAME_PATH}, null, null, null, null,
+                GameDatabase.KEY_DB_ID)) {
+            while (cursor.moveToNext()) {
+                storedPaths.add(cursor.getString(0));
+            }
+        }
+        assertEquals(Arrays.asList(paths), storedPaths);
+    }
+
+    private void assertColumnsExist(String table, String... columns) {
+        List<String> storedColumns = getColumns(mDatabase, table);
+        for (String column : columns) {
+            assertTrue(table + " has no column " + column, storedColumns.contains(column));
+        }
+    }
+
+    private void assertIndexExists(String index) {
+        assertEquals("Index " + index + " is missing", 1, DatabaseUtils.queryNumEntries(mDatabase,
+                "sqlite_master", "type = 'index' AND name = ?", new String[]{index}));
+    }
+
+    private static List<String> getColumns(SQLiteDatabase database, String table) {
+        List<String> columns = new ArrayList<>();
+        try (Cursor cursor = database.rawQuery("PRAGMA table_info(" + table + ")", null)) {
+            int nameColumn = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameColumn));
+            }
+        }
+        assertFalse("Table " + table + " is missing", columns.isEmpty());
+        return columns;
+    }
+
+    private String getString(String column, String path) {
+        return DatabaseUtils.stringForQuery(mDatabase, "SELECT " + column + " FROM "
+                + GameDatabase.TABLE_NAME_GAMES + " WHERE " + GameDatabase.KEY_GAME_PATH + " = ?",
+                new String[]{path});
+    }
+
+    private long countMatches(String query) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM "
+                + GameDatabase.TABLE_NAME_GAMES_FTS + " WHERE "
+                + GameDatabase.TABLE_NAME_GAMES_FTS + " MATCH ?", new String[]{query});
+    }
+}
@@ -0,0 +1,220 @@
+package org.citra.citra_emu.model;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.citra.citra_emu.NativeLibrary;
+import org.citra.citra_emu.TestCitraApplication;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times library scans of a synthetic library against a real SQLite database, so changes to the
+ * scanner can be compared. Metadata comes from a fake source instead of the native loader, so
+ * the numbers cover the walk, the filtering, the hashing and the writes.
+ * <p>
+ * The library holds {@code scanBenchmark.files} files (10000 by default), spread over a folder
+ * nested three levels deep like the scanner walks it, with game and non-game extensions mixed.
+ * Each scan reports files per second and, on JDK 16 and newer, bytes allocated per file.
+ * <p>
+ * It takes a while, so it is skipped unless asked for with {@code -PscanBenchmark} on the Gradle
+ * command line.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = TestCitraApplication.class)
+public class LibraryScanBenchmark {
+    private static final int FILE_COUNT = Integer.getInteger("scanBenchmark.files", 10000);
+    private static final int DIRECTORIES_PER_LEVEL = 10;
+    private static final int FILE_BYTES = 1024;
+    // Files in every tenth directory are touched before the last scan.
+    private static final int CHANGED_DIRECTORY_INTERVAL = 10;
+
+    private static final String[] GAME_EXTENSIONS = {".3ds", ".cci", ".cxi", ".3dsx", ".app"};
+    private static final String[] OTHER_EXTENSIONS = {".sav", ".txt", ".png"};
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -PscanBenchmark to benchmark library scans",
+                Boolean.getBoolean("scanBenchmark"));
+    }
+
+    @Test
+    public void scanSyntheticLibrary() throws IOException {
+        File library = mTemporaryFolder.newFolder("library");
+        int gameCount = createLibrary(library);
+
+        GameDatabase databaseHelper = new GameDatabase(ApplicationProvider.getApplicationContext());
+        SQLiteDatabase database = databaseHelper.getWritableDatabase();
+        ContentValues folder = new ContentValues();
+        folder.put(GameDatabase.KEY_FOLDER_PATH, library.getPath());
+        database.insert(GameDatabase.TABLE_NAME_FOLDERS, null, folder);
+
+        scan(databaseHelper, database, "First scan");
+        assertEquals(gameCount,
+                DatabaseUtils.queryNumEntries(database, GameDatabase.TABLE_NAME_GAMES));
+
+        scan(databaseHelper, database, "Unchanged rescan");
+
+        int changedFiles = touchFiles(library);
+        ScanProgress result = scan(databaseHelper, database,
+                "Rescan with " + changedFiles + " files touched");
+        assertEquals(gameCount,
+                DatabaseUtils.queryNumEntries(database, GameDatabase.TABLE_NAME_GAMES));
+        assertEquals(0, result.getRemovedPaths().size());
+    }
+
+    private static ScanProgress scan(GameDatabase databaseHelper, SQLiteDatabase database,
+                                     String name) {
+        AtomicReference<ScanProgress> result = new AtomicReference<>();
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        databaseHelper.scanLibrary(database, null, true, new FakeMetadataSource(), progress ->
+        {
+            if (progress.isFinished()) {
+                result.set(progress);
+            }
+        });
+        long elapsedNanos = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+
+        String allocations = allocatedBefore < 0 || allocatedAfter < 0 ? "n/a" :
+                Long.toString((allocatedAfter - allocatedBefore) / FILE_COUNT);
+        System.out.println(String.format(Locale.US,
+                "[LibraryScanBenchmark] %s: %d files in %d ms, %.0f files/s, %s bytes allocated " +
+                        "per file, %d games written",
+                name, FILE_COUNT, elapsedNanos / 1000000, FILE_COUNT * 1e9 / elapsedNanos,
+                allocations, result.get().getGamesAdded()));
+        return result.get();
+    }
+
+    /**
+     * Fills the folder with {@link #FILE_COUNT} files, spread evenly over the folder itself, its
+     * subdirectories and theirs.
+     *
+     * @return The number of files the scanner should take for games.
+     */
+    private static int createLibrary(File library) throws IOException {
+        File[] directories = new File[1 + DIRECTORIES_PER_LEVEL +
+                DIRECTORIES_PER_LEVEL * DIRECTORIES_PER_LEVEL];
+        int directoryCount = 0;
+        directories[directoryCount++] = library;
+        for (int i = 0; i < DIRECTORIES_PER_LEVEL; i++) {
+            File directory = new File(library, "dir" + i);
+            directories[directoryCount++] = directory;
+            for (int j = 0; j < DIRECTORIES_PER_LEVEL; j++) {
+                directories[directoryCount++] = new File(directory, "dir" + j);
+            }
+        }
+        for (File directory : directories) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+        }
+
+        int gameCount = 0;
+        byte[] contents = new byte[FILE_BYTES];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            // Two thirds games, one third other files.
+            boolean isGame = i % 3 != 2;
+            String extension = isGame ? GAME_EXTENSIONS[i % GAME_EXTENSIONS.length] :
+                    OTHER_EXTENSIONS[i % OTHER_EXTENSIONS.length];
+            File file = new File(directories[i % directories.length], "file" + i + extension);
+
+            // Distinct contents, so no game is taken for a copy of another.
+            ByteBuffer.wrap(contents).putInt(0, i);
+            try (FileOutputStream output = new FileOutputStream(file)) {
+                output.write(contents);
+            }
+
+            if (isGame) {
+                gameCount++;
+            }
+        }
+        return gameCount;
+    }
+
+    /**
+     * Changes the modification time of the files in some of the directories.
+     *
+     * @return The number of files touched.
+     */
+    private static int touchFiles(File library) {
+        int touchedFiles = 0;
+        long now = System.currentTimeMillis();
+        File[] directories = library.listFiles(File::isDirectory);
+        for (int i = 0; i < directories.length; i += CHANGED_DIRECTORY_INTERVAL) {
+            File[] files = directories[i].listFiles(File::isFile);
+            for (File file : files) {
+                if (file.setLastModified(now)) {
+                    touchedFiles++;
+                }
+            }
+        }
+        return touchedFiles;
+    }
+
+    /**
+     * @return The bytes allocated by every thread so far, including the scan's workers that have
+     * finished since, or -1 if the JVM can't tell.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try {
+            // Only available on JDK 16 and newer.
+            return (long) Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getTotalThreadAllocatedBytes")
+                    .invoke(threads);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Names each game after its file and gives it an icon, like a well-formed ROM.
+     */
+    private static final class FakeMetadataSource implements LibraryScanner.MetadataSource {
+        @Override
+        public String[] getInstalledGamePaths() {
+            return new String[0];
+        }
+
+        @Override
+        public void read(String[] paths, NativeLibrary.GameMetadata[] metadata,
+                         ByteBuffer[] icons) {
+            for (int i = 0; i < paths.length; i++) {
+                NativeLibrary.GameMetadata game = new NativeLibrary.GameMetadata();
+                game.title = paths[i].substring(paths[i].lastIndexOf('/') + 1);
+                game.description = paths[i];
+                game.gameId = paths[i];
+                game.regions = "Region free";
+                game.company = "Citra";
+                game.hasIcon = icons[i] != null;
+                metadata[i] = game;
+            }
+        }
+    }
+}